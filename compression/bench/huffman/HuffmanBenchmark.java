@@ -0,0 +1,189 @@
+package huffman;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * JMH benchmarks for the huffman package: model construction, compress and
+ * decompress over corpi of different sizes and entropy profiles. Each
+ * benchmark adds the number of characters it processed to the Throughput
+ * counters, which JMH reports as a rate (characters/s, i.e. 2 bytes of UTF-16
+ * each); run with {@code -prof gc} for allocation rates. See the README for
+ * how to build and run it.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms4g", "-Xmx12g"})
+@State(Scope.Benchmark)
+public class HuffmanBenchmark {
+    
+    /**
+     * Corpus size in characters: 1KB to 1GB (the largest needs the big heap)
+     */
+    @Param({"1024", "1048576", "67108864", "1073741824"})
+    public int size;
+    
+    /**
+     * Distribution of characters in the corpus
+     */
+    @Param({"uniform", "zipfian", "english"})
+    public String profile;
+    
+    private String corpus;
+    private Huffman huffman;
+    private byte[] compressed;
+    private byte[] compressedParallel;
+    private byte[] compressedInterleaved;
+    
+    @Setup(Level.Trial)
+    public void setUp () {
+        corpus = Corpora.generate(profile, size, 282);
+        huffman = new Huffman(corpus);
+        compressed = huffman.compress(corpus);
+        compressedParallel = huffman.compressParallel(corpus);
+        compressedInterleaved = huffman.compressInterleaved(corpus);
+    }
+    
+    /**
+     * Characters processed, reported by JMH as a rate next to ops/s
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Throughput {
+        public long characters;
+    }
+    
+    @Benchmark
+    public Huffman construct (Throughput counter) {
+        counter.characters += size;
+        return new Huffman(corpus);
+    }
+    
+    @Benchmark
+    public byte[] compress (Throughput counter) {
+        counter.characters += size;
+        return huffman.compress(corpus);
+    }
+    
+    @Benchmark
+    public String decompress (Throughput counter) {
+        counter.characters += size;
+        return huffman.decompress(compressed);
+    }
+    
+    @Benchmark
+    public byte[] compressParallel (Throughput counter) {
+        counter.characters += size;
+        return huffman.compressParallel(corpus);
+    }
+    
+    @Benchmark
+    public String decompressParallel (Throughput counter) {
+        counter.characters += size;
+        return huffman.decompressParallel(compressedParallel);
+    }
+    
+    @Benchmark
+    public String decompressInterleaved (Throughput counter) {
+        counter.characters += size;
+        return huffman.decompressInterleaved(compressedInterleaved);
+    }
+    
+    /**
+     * Deterministic synthetic corpi for the benchmarks
+     */
+    static final class Corpora {
+        
+        private static final String ALPHABET =
+            "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789 .,;:!?'\"-()\n";
+        
+        // The most common English words, most common first
+        private static final String[] WORDS = (
+            "the of and to a in is you that it he was for on are as with his they I at be this "
+            + "have from or one had by word but not what all were we when your can said there use "
+            + "an each which she do how their if will up other about out many then them these so "
+            + "some her would make like him into time has look two more write go see number no way "
+            + "could people my than first water been call who oil its now find long down day did "
+            + "get come made may part").split(" ");
+        
+        private Corpora () {}
+        
+        /**
+         * @param profile "uniform" (every character of a 75 character alphabet
+         *        equally likely), "zipfian" (the same alphabet with the k-th
+         *        character k times rarer than the first) or "english" (words
+         *        drawn with Zipfian frequencies, plus spaces and punctuation)
+         * @param size number of characters to generate
+         * @param seed seed for the random choices
+         * @return the corpus
+         */
+        static String generate (String profile, int size, long seed) {
+            Random random = new Random(seed);
+            char[] corpus = new char[size];
+            switch (profile) {
+                case "uniform":
+                    for (int i = 0; i < size; i++) {
+                        corpus[i] = ALPHABET.charAt(random.nextInt(ALPHABET.length()));
+                    }
+                    break;
+                case "zipfian":
+                    double[] cumulative = zipf(ALPHABET.length());
+                    for (int i = 0; i < size; i++) {
+                        corpus[i] = ALPHABET.charAt(pick(cumulative, random));
+                    }
+                    break;
+                case "english":
+                    double[] words = zipf(WORDS.length);
+                    int i = 0;
+                    while (i < size) {
+                        String word = WORDS[pick(words, random)];
+                        for (int c = 0; c < word.length() && i < size; c++) {
+                            corpus[i++] = word.charAt(c);
+                        }
+                        if (i < size) {
+                            int r = random.nextInt(20);
+                            corpus[i++] = r == 0 ? '.' : r == 1 ? ',' : r == 2 ? '\n' : ' ';
+                        }
+                    }
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown profile: " + profile);
+            }
+            return new String(corpus);
+        }
+        
+        private static double[] zipf (int n) {
+            double[] cumulative = new double[n];
+            double total = 0;
+            for (int k = 0; k < n; k++) {
+                total += 1.0 / (k + 1);
+                cumulative[k] = total;
+            }
+            for (int k = 0; k < n; k++) {
+                cumulative[k] /= total;
+            }
+            return cumulative;
+        }
+        
+        private static int pick (double[] cumulative, Random random) {
+            double u = random.nextDouble();
+            int low = 0, high = cumulative.length - 1;
+            while (low < high) {
+                int middle = (low + high) >>> 1;
+                if (cumulative[middle] < u) {
+                    low = middle + 1;
+                }
+                else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+        
+    }
+    
+}
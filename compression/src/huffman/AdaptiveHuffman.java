@@ -0,0 +1,303 @@
+package huffman;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Adaptive (dynamic) Huffman coding with the FGK algorithm: encoder and
+ * decoder both start from a trie holding only the NYT ("not yet transmitted")
+ * node and update it identically after every symbol, so no training corpus
+ * and no code table ever has to be sent. A symbol's first appearance is
+ * sent as the NYT codeword followed by the symbol's raw bits.
+ */
+public class AdaptiveHuffman {
+
+    // -----------------------------------------------
+    // The Adaptive Trie
+    // -----------------------------------------------
+
+    // Nodes live in arrays indexed by their FGK node number: weights never
+    // decrease as the number increases (the sibling property), the root has
+    // the highest number, and swapping two subtrees is swapping two slots.
+    private final int[] weight;
+    private final int[] parent;
+    private final int[] left;   // -1 for leaves
+    private final int[] right;
+    private final int[] symbol; // for leaves only
+    private final int[] leaf;   // slot of each symbol's leaf, -1 if not yet seen
+    private final int root;
+    private final int symbolBits;
+    private int nyt;            // slot of the NYT leaf, always the lowest in use
+
+    /**
+     * Creates an empty model, as used at the start of every message
+     * @param symbolBits number of bits in a raw symbol (16 for characters,
+     *        8 for bytes)
+     */
+    AdaptiveHuffman (int symbolBits) {
+        int nodes = 2 << symbolBits; // 2 * alphabet - 1 (+1 to spare)
+        this.weight = new int[nodes];
+        this.parent = new int[nodes];
+        this.left = new int[nodes];
+        this.right = new int[nodes];
+        this.symbol = new int[nodes];
+        this.leaf = new int[1 << symbolBits];
+        this.symbolBits = symbolBits;
+        this.root = nodes - 1;
+        this.nyt = root;
+        Arrays.fill(leaf, -1);
+        parent[root] = -1;
+        left[root] = -1;
+    }
+
+    /**
+     * @return most bits a single symbol can take: a path through a trie of
+     *         the whole alphabet plus NYT is at most one level per symbol,
+     *         and a new symbol adds its raw bits (codewords are not capped
+     *         at 32 bits as static codes are)
+     */
+    int maxSymbolBits () {
+        return leaf.length + symbolBits;
+    }
+
+    /**
+     * Writes the codeword for the given symbol, then updates the trie
+     * @param s the symbol, 0 <= s < 2^symbolBits
+     * @param out writer receiving the codeword
+     */
+    void encode (int s, BitWriter out) {
+        int node = leaf[s];
+        writePath(node == -1 ? nyt : node, out);
+        if (node == -1) {
+            out.write(s, symbolBits);
+        }
+        update(s);
+    }
+
+    /**
+     * Reads the next symbol's codeword, then updates the trie
+     * @param in reader positioned at a codeword
+     * @return the decoded symbol
+     */
+    int decode (BitReader in) {
+        int node = root;
+        while (left[node] != -1) {
+            node = in.read(1) == 0 ? left[node] : right[node];
+        }
+        int s = node == nyt ? in.read(symbolBits) : symbol[node];
+        update(s);
+        return s;
+    }
+
+    /**
+     * Writes the path from the root down to the given node, found by climbing
+     * up from the node and then replaying the steps in reverse
+     */
+    private void writePath (int node, BitWriter out) {
+        int depth = 0;
+        for (int n = node; n != root; n = parent[n]) {
+            depth++;
+        }
+        //send it in 32-bit chunks, from the root end
+        int[] chunks = new int[(depth + 31) / 32];
+        int bit = 0;
+        for (int n = node; n != root; n = parent[n], bit++) {
+            if (right[parent[n]] == n) {
+                chunks[chunks.length - 1 - bit / 32] |= 1 << (bit % 32);
+            }
+        }
+        int first = depth % 32 == 0 ? 32 : depth % 32;
+        for (int i = 0; i < chunks.length; i++) {
+            out.write(chunks[i], i == 0 ? first : 32);
+        }
+    }
+
+    /**
+     * FGK update: add one to the weight of the symbol's leaf and each of its
+     * ancestors, first swapping each node with the highest numbered node of
+     * the same weight so that the sibling property survives the increment
+     */
+    private void update (int s) {
+        int node = leaf[s];
+        if (node == -1) {
+            //split the NYT node into a new NYT (left) and the new leaf (right)
+            int old = nyt;
+            node = old - 1;
+            nyt = old - 2;
+            left[old] = nyt;
+            right[old] = node;
+            parent[node] = old;
+            parent[nyt] = old;
+            left[node] = -1;
+            left[nyt] = -1;
+            symbol[node] = s;
+            leaf[s] = node;
+        }
+        while (node != -1) {
+            int leader = node;
+            while (leader < root && weight[leader + 1] == weight[node]) {
+                leader++;
+            }
+            if (leader != node && leader != parent[node]) {
+                swap(node, leader);
+                node = leader;
+            }
+            weight[node]++;
+            node = parent[node];
+        }
+    }
+
+    /**
+     * Swaps the subtrees in slots a and b, leaving their parents in place
+     */
+    private void swap (int a, int b) {
+        int tmp;
+        tmp = left[a]; left[a] = left[b]; left[b] = tmp;
+        tmp = right[a]; right[a] = right[b]; right[b] = tmp;
+        tmp = symbol[a]; symbol[a] = symbol[b]; symbol[b] = tmp;
+        tmp = weight[a]; weight[a] = weight[b]; weight[b] = tmp;
+        fixChildren(a);
+        fixChildren(b);
+    }
+
+    private void fixChildren (int node) {
+        if (left[node] == -1) {
+            leaf[symbol[node]] = node;
+        }
+        else {
+            parent[left[node]] = node;
+            parent[right[node]] = node;
+        }
+    }
+
+    // -----------------------------------------------
+    // Compression
+    // -----------------------------------------------
+
+    /**
+     * Compresses the given String message in a single pass, with no corpus
+     * @param message String to compress
+     * @return {@code byte[]} formatted as 2 components: (1) the number of
+     *         characters in the message as a varint, (2) the adaptive
+     *         Huffman coded bitstring, 0-padded to a whole byte
+     */
+    public static byte[] compress (String message) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Varint.write(out, message.length());
+
+        AdaptiveHuffman model = new AdaptiveHuffman(Character.SIZE);
+        BitWriter bits = new BitWriter(message.length());
+        for (int i = 0; i < message.length(); i++) {
+            model.encode(message.charAt(i), bits);
+        }
+        bits.flush();
+        out.write(bits.buffer().array(), 0, bits.buffer().position());
+        return out.toByteArray();
+    }
+
+    /**
+     * Decompresses a message written by {@link #compress(String)}
+     * @param compressedMsg {@code byte[]} holding the compressed message
+     * @return Decompressed String representation of the compressed message.
+     * @throws IllegalArgumentException if the message is truncated
+     */
+    public static String decompress (byte[] compressedMsg) {
+        ByteBuffer header = ByteBuffer.wrap(compressedMsg);
+        int length = Varint.readCount(header);
+
+        AdaptiveHuffman model = new AdaptiveHuffman(Character.SIZE);
+        BitReader bits = new BitReader(header, header.position(), compressedMsg.length);
+        char[] uncompressedMsg = new char[length];
+        for (int i = 0; i < length; i++) {
+            uncompressedMsg[i] = (char) model.decode(bits);
+        }
+        if (bits.overrun()) {
+            throw new IllegalArgumentException("Truncated message");
+        }
+        return new String(uncompressedMsg);
+    }
+
+    /**
+     * Compresses everything readable from the given stream in a single pass,
+     * encoding starting with the very first byte. Output is the same block
+     * container the static {@link Huffman} streams use (see
+     * {@link BlockFormat}), except that the model carries over from one
+     * block to the next, so the blocks must be decoded in order.
+     * <p>
+     * Input is gathered into a block for as long as more of it is
+     * {@link InputStream#available available} without blocking, up to
+     * STREAM_BLOCK_SIZE bytes; then the block is written and flushed. A file
+     * becomes a few large blocks, while a live feed (a socket, a pipe) has
+     * each burst of input reach the receiver as soon as the feed pauses.
+     * @param in stream of bytes to compress, read until its end
+     * @param out stream receiving the compressed container
+     * @throws IOException if reading or writing fails
+     */
+    public static void compress (InputStream in, OutputStream out) throws IOException {
+        AdaptiveHuffman model = new AdaptiveHuffman(Byte.SIZE);
+        byte[] block = new byte[Huffman.STREAM_BLOCK_SIZE];
+        BitWriter bits = new BitWriter(Huffman.STREAM_BLOCK_SIZE);
+        BlockFormat.Writer blocks = new BlockFormat.Writer(new BufferedOutputStream(out, Huffman.STREAM_BLOCK_SIZE));
+
+        int blockLength = 0;
+        int read;
+        while ((read = in.read(block, blockLength, block.length - blockLength)) != -1) {
+            blockLength += read;
+            if (blockLength < block.length && in.available() > 0) {
+                continue;
+            }
+            if (blockLength > 0) {
+                model.encodeBlock(block, blockLength, bits);
+                blocks.write(blockLength, bits.buffer());
+                blocks.flush();
+                blockLength = 0;
+            }
+        }
+        if (blockLength > 0) {
+            model.encodeBlock(block, blockLength, bits);
+            blocks.write(blockLength, bits.buffer());
+        }
+        blocks.finish();
+    }
+
+    private void encodeBlock (byte[] block, int length, BitWriter bits) {
+        bits.reset();
+        for (int i = 0; i < length; i++) {
+            encode(block[i] & 0xFF, bits);
+        }
+        bits.flush();
+    }
+
+    /**
+     * Decompresses a stream written by {@link #compress(InputStream, OutputStream)}
+     * @param in stream holding the compressed container, read through its end
+     * @param out stream receiving the decompressed bytes
+     * @throws IOException if reading or writing fails, or the stream is malformed
+     */
+    public static void decompress (InputStream in, OutputStream out) throws IOException {
+        AdaptiveHuffman model = new AdaptiveHuffman(Byte.SIZE);
+        BlockFormat.Reader blocks = new BlockFormat.Reader(new BufferedInputStream(in, Huffman.STREAM_BLOCK_SIZE), model.maxSymbolBits());
+        byte[] block = new byte[Huffman.STREAM_BLOCK_SIZE];
+        BitReader bits = new BitReader(ByteBuffer.wrap(block), 0, 0);
+
+        int blockLength;
+        while ((blockLength = blocks.next()) != 0) {
+            if (blockLength > block.length) {
+                block = new byte[blockLength];
+            }
+            bits.reset(ByteBuffer.wrap(blocks.encoded()), 0, blocks.length());
+            for (int i = 0; i < blockLength; i++) {
+                block[i] = (byte) model.decode(bits);
+            }
+            out.write(block, 0, blockLength);
+        }
+        out.flush();
+    }
+
+}
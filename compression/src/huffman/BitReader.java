@@ -0,0 +1,112 @@
+package huffman;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Reads a big-endian (most significant bit first) bitstring out of a
+ * ByteBuffer through a 64-bit window, so that callers can peek at up to
+ * 32 bits at once instead of fetching them one at a time. Reads past the
+ * end of the buffer see 0-bits, matching the 0-padding on the final byte
+ * of a compressed message.
+ */
+final class BitReader {
+    
+    private ByteBuffer buf;
+    private int start;   // index of the first byte of the region
+    private int pos;     // index of the next byte to load into the window
+    private int limit;   // index one past the last readable byte
+    private long window; // unread bits, left-aligned
+    private int avail;   // number of meaningful bits in the window
+    private int padding; // 0-bits handed out from beyond the end of the region
+    private boolean bigEndian;
+    
+    BitReader (ByteBuffer buf, int from, int to) {
+        reset(buf, from, to);
+    }
+    
+    /**
+     * Points this reader at a new region of bytes, dropping any buffered bits
+     * @param buf the buffer holding the bitstring (never modified)
+     * @param from index of the first byte to read
+     * @param to index one past the last byte to read
+     */
+    void reset (ByteBuffer buf, int from, int to) {
+        this.buf = buf;
+        this.start = from;
+        this.pos = from;
+        this.limit = to;
+        this.window = 0;
+        this.avail = 0;
+        this.padding = 0;
+        this.bigEndian = buf.order() == ByteOrder.BIG_ENDIAN;
+    }
+    
+    /**
+     * Returns the next n bits without consuming them
+     * @param n number of bits to look at, 1 <= n <= 32
+     * @return the bits as the low n bits of an int
+     */
+    int peek (int n) {
+        if (avail < n) {
+            refill();
+        }
+        return (int) (window >>> (64 - n));
+    }
+    
+    /**
+     * Consumes n bits that were previously peeked at
+     * @param n number of bits to drop, n <= 32
+     */
+    void skip (int n) {
+        window <<= n;
+        avail -= n;
+    }
+    
+    /**
+     * Reads and consumes the next n bits
+     * @param n number of bits to read, 1 <= n <= 32
+     * @return the bits as the low n bits of an int
+     */
+    int read (int n) {
+        int bits = peek(n);
+        skip(n);
+        return bits;
+    }
+    
+    /**
+     * @return the number of bits consumed since the first byte of the region
+     *         (as long, since large buffers hold more than 2^31 bits)
+     */
+    long bitPosition () {
+        return (long) (pos - start) * 8 + padding - avail;
+    }
+    
+    /**
+     * @return whether bits from beyond the end of the region have been
+     *         consumed, i.e. more was decoded than the bitstring holds
+     */
+    boolean overrun () {
+        return bitPosition() > (long) (limit - start) * 8;
+    }
+    
+    private void refill () {
+        //grab 4 bytes at a time while we can, then dribble in the tail
+        if (bigEndian && avail <= 32 && limit - pos >= 4) {
+            window |= (buf.getInt(pos) & 0xFFFFFFFFL) << (32 - avail);
+            pos += 4;
+            avail += 32;
+        }
+        while (avail <= 56 && pos < limit) {
+            window |= (buf.get(pos) & 0xFFL) << (56 - avail);
+            pos++;
+            avail += 8;
+        }
+        if (avail < 32) {
+            //past the end: pretend there are 0s (which the window already holds)
+            padding += 64 - avail;
+            avail = 64;
+        }
+    }
+    
+}
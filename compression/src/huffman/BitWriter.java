@@ -0,0 +1,127 @@
+package huffman;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Packs codewords into a big-endian (most significant bit first) bitstring
+ * through a 64-bit accumulator, handing whole 32-bit words to the output
+ * buffer instead of building Strings of '0's and '1's.
+ */
+final class BitWriter {
+    
+    private ByteBuffer out;
+    private final boolean growable;
+    private long acc;  // pending bits, right-aligned
+    private int bits;  // number of pending bits, always < 32 between writes
+    
+    /**
+     * Creates a writer into its own heap buffer, which grows as needed
+     * @param capacity initial capacity of the buffer in bytes
+     */
+    BitWriter (int capacity) {
+        this.out = ByteBuffer.allocate(Math.max(capacity, 8));
+        this.growable = true;
+    }
+    
+    /**
+     * Creates a writer into the given buffer, starting at its position
+     * @param out buffer receiving the bytes; its position is advanced
+     */
+    BitWriter (ByteBuffer out) {
+        this.out = out;
+        this.growable = false;
+    }
+    
+    /**
+     * Appends a codeword
+     * @param code the codeword, in the low length bits
+     * @param length number of bits in the codeword, 0..32
+     * @throws BufferOverflowException if a fixed-size buffer is full
+     */
+    void write (int code, int length) {
+        acc = (acc << length) | (code & 0xFFFFFFFFL);
+        bits += length;
+        if (bits >= 32) {
+            bits -= 32;
+            ensure(4);
+            int word = (int) (acc >>> bits);
+            if (out.order() == ByteOrder.BIG_ENDIAN) {
+                out.putInt(word);
+            }
+            else {
+                out.put((byte) (word >>> 24)).put((byte) (word >>> 16)).put((byte) (word >>> 8)).put((byte) word);
+            }
+        }
+    }
+    
+    /**
+     * Writes out any pending bits, 0-padding the final byte
+     */
+    void flush () {
+        ensure((bits + 7) / 8);
+        while (bits >= 8) {
+            bits -= 8;
+            out.put((byte) (acc >>> bits));
+        }
+        if (bits > 0) {
+            out.put((byte) (acc << (8 - bits)));
+            bits = 0;
+        }
+    }
+    
+    /**
+     * @return the number of bits written since the start of the buffer, for
+     *         a writer that owns its buffer (as long, since large buffers
+     *         hold more than 2^31 bits)
+     */
+    long bitPosition () {
+        return (long) out.position() * 8 + bits;
+    }
+    
+    /**
+     * @return the buffer holding the bytes written so far (from index 0 up to
+     *         its position, for a writer that owns its buffer); it may change
+     *         as the writer grows it
+     */
+    ByteBuffer buffer () {
+        return out;
+    }
+    
+    /**
+     * Points a writer that does not own its buffer at a new buffer, dropping
+     * any pending bits
+     * @param out buffer receiving the bytes, starting at its position
+     */
+    void reset (ByteBuffer out) {
+        if (growable) {
+            throw new IllegalStateException("Writer owns its buffer");
+        }
+        this.out = out;
+        acc = 0;
+        bits = 0;
+    }
+    
+    /**
+     * Discards everything written, for reuse of a writer that owns its buffer
+     */
+    void reset () {
+        out.clear();
+        acc = 0;
+        bits = 0;
+    }
+    
+    private void ensure (int bytes) {
+        if (out.remaining() < bytes) {
+            if (!growable) {
+                throw new BufferOverflowException();
+            }
+            ByteBuffer bigger = ByteBuffer.allocate(out.capacity() * 2 + bytes);
+            out.flip();
+            bigger.put(out);
+            out = bigger;
+        }
+    }
+    
+}
@@ -0,0 +1,212 @@
+package huffman;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+
+/**
+ * The versioned container format used for compressed streams. A container
+ * is a 2 byte header (the magic byte 'H' and the format version) followed by
+ * any number of blocks, each formatted as: (1) the number of symbols in the
+ * block as a varint, (2) the length of its bitstring in bytes as a varint,
+ * (3) the 0-padded bitstring, (4) the CRC32 of the bitstring as a 4-byte
+ * big-endian int. A block of 0 symbols (a single 0 byte) ends the container.
+ * Every block starts a fresh bitstring, so blocks decode independently.
+ */
+final class BlockFormat {
+    
+    static final int MAGIC = 'H';
+    static final int VERSION = 1;
+    
+    /**
+     * Most bits a single symbol can take: the longest codeword, plus the
+     * literal that follows an escape
+     */
+    static final int MAX_SYMBOL_BITS = CodeTable.MAX_CODE_LENGTH + CodeTable.LITERAL_BITS;
+    
+    private BlockFormat () {}
+    
+    /**
+     * @param symbolCount number of symbols in a block
+     * @return the longest bitstring, in bytes, such a block can have
+     */
+    static long maxEncodedLength (long symbolCount) {
+        return maxEncodedLength(symbolCount, MAX_SYMBOL_BITS);
+    }
+    
+    /**
+     * @param symbolCount number of symbols in a block
+     * @param maxSymbolBits most bits a single symbol can take
+     * @return the longest bitstring, in bytes, such a block can have
+     */
+    static long maxEncodedLength (long symbolCount, int maxSymbolBits) {
+        return (symbolCount * maxSymbolBits + 7) / 8;
+    }
+    
+    /**
+     * Computes the checksum stored after a block's bitstring
+     * @param buf buffer holding the bitstring (its position is not changed)
+     * @param from index of the bitstring's first byte
+     * @param to index one past its last byte
+     * @return the CRC32 of the bitstring, as written by {@link Writer#write}
+     */
+    static int checksum (ByteBuffer buf, int from, int to) {
+        CRC32 crc = new CRC32();
+        ByteBuffer bitstring = buf.duplicate();
+        bitstring.limit(to).position(from);
+        crc.update(bitstring);
+        return (int) crc.getValue();
+    }
+    
+    /**
+     * Writes a container to an output stream
+     */
+    static final class Writer {
+        
+        private final OutputStream out;
+        private final CRC32 crc = new CRC32();
+        
+        /**
+         * Starts a container by writing its header
+         * @param out stream receiving the container
+         * @throws IOException if writing fails
+         */
+        Writer (OutputStream out) throws IOException {
+            this.out = out;
+            out.write(MAGIC);
+            out.write(VERSION);
+        }
+        
+        /**
+         * Writes a block
+         * @param symbolCount number of symbols encoded in the block, > 0
+         * @param encoded bytes 0 to position() of which are the block's bitstring
+         * @throws IOException if writing fails
+         */
+        void write (int symbolCount, ByteBuffer encoded) throws IOException {
+            int length = encoded.position();
+            crc.reset();
+            crc.update(encoded.array(), encoded.arrayOffset(), length);
+            Varint.write(out, symbolCount);
+            Varint.write(out, length);
+            out.write(encoded.array(), encoded.arrayOffset(), length);
+            int checksum = (int) crc.getValue();
+            out.write(checksum >>> 24);
+            out.write(checksum >>> 16);
+            out.write(checksum >>> 8);
+            out.write(checksum);
+        }
+        
+        /**
+         * Flushes the stream, so that every block written so far reaches
+         * the reader
+         * @throws IOException if writing fails
+         */
+        void flush () throws IOException {
+            out.flush();
+        }
+        
+        /**
+         * Ends the container and flushes the stream
+         * @throws IOException if writing fails
+         */
+        void finish () throws IOException {
+            Varint.write(out, 0);
+            out.flush();
+        }
+        
+    }
+    
+    /**
+     * Reads a container from an input stream, one block at a time
+     */
+    static final class Reader {
+        
+        private final DataInputStream in;
+        private final int maxSymbolBits;
+        private final CRC32 crc = new CRC32();
+        private byte[] encoded = new byte[Huffman.STREAM_BLOCK_SIZE];
+        private int length;
+        
+        /**
+         * Checks the container's header
+         * @param in stream positioned at the start of a container
+         * @throws IOException if reading fails or this is not a container
+         *         in a version we understand
+         */
+        Reader (InputStream in) throws IOException {
+            this(in, MAX_SYMBOL_BITS);
+        }
+        
+        /**
+         * Checks the container's header, for a code whose symbols may take
+         * more than MAX_SYMBOL_BITS bits each
+         * @param in stream positioned at the start of a container
+         * @param maxSymbolBits most bits a single symbol can take, for
+         *        rejecting blocks that claim to be longer
+         * @throws IOException if reading fails or this is not a container
+         *         in a version we understand
+         */
+        Reader (InputStream in, int maxSymbolBits) throws IOException {
+            this.in = new DataInputStream(in);
+            this.maxSymbolBits = maxSymbolBits;
+            if (this.in.read() != MAGIC) {
+                throw new IOException("Not a Huffman container");
+            }
+            int version = this.in.read();
+            if (version != VERSION) {
+                throw new IOException("Unsupported container version: " + version);
+            }
+        }
+        
+        /**
+         * Reads the next block and verifies its checksum
+         * @return number of symbols in the block, 0 at the end of the container
+         * @throws IOException if reading fails or the block is corrupt
+         */
+        int next () throws IOException {
+            long symbolCount = Varint.read(in);
+            if (symbolCount == 0) {
+                return 0;
+            }
+            long encodedLength = Varint.read(in);
+            if (symbolCount > Huffman.MAX_BLOCK_SIZE
+                    || encodedLength > maxEncodedLength(symbolCount, maxSymbolBits)) {
+                throw new IOException("Malformed block header");
+            }
+            
+            length = (int) encodedLength;
+            if (length > encoded.length) {
+                encoded = new byte[length];
+            }
+            in.readFully(encoded, 0, length);
+            
+            crc.reset();
+            crc.update(encoded, 0, length);
+            if (in.readInt() != (int) crc.getValue()) {
+                throw new IOException("Block checksum mismatch");
+            }
+            return (int) symbolCount;
+        }
+        
+        /**
+         * @return the buffer holding the current block's bitstring
+         *         (valid until the next call to next())
+         */
+        byte[] encoded () {
+            return encoded;
+        }
+        
+        /**
+         * @return length in bytes of the current block's bitstring
+         */
+        int length () {
+            return length;
+        }
+        
+    }
+    
+}
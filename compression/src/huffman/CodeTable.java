@@ -0,0 +1,181 @@
+package huffman;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A canonical Huffman code: the codewords are fully determined by each
+ * symbol's code length, with shorter codes first and ties broken by symbol
+ * value (so codewords of equal length count up in symbol order). This lets
+ * the code travel as nothing more than a table of lengths.
+ */
+final class CodeTable {
+
+    /**
+     * Longest codeword allowed, so that every codeword fits in an int
+     */
+    static final int MAX_CODE_LENGTH = 32;
+
+    /**
+     * The escape symbol: its codeword is followed by the LITERAL_BITS bits of
+     * a symbol that is not in the alphabet. It sorts after every code point,
+     * so it is always the last symbol of a header.
+     */
+    static final int ESCAPE = Character.MAX_CODE_POINT + 1;
+
+    /**
+     * Bits in an escaped literal, enough for any code point
+     */
+    static final int LITERAL_BITS = 21;
+
+    // All three are indexed by dense symbol index, in canonical order
+    final int[] symbols;
+    final byte[] lengths;
+    final int[] codes;
+    final int maxLength;
+    final int escapeIndex;  // dense index of ESCAPE, -1 if the code has none
+
+    // Dense index of each symbol but the escape, for encoding
+    private final SymbolMap indexOf;
+
+    /**
+     * Assigns canonical codewords to the given symbols
+     * @param symbols the symbols of the alphabet, each appearing once
+     * @param lengths the code length of each symbol, 1..MAX_CODE_LENGTH
+     * @throws IllegalArgumentException if the lengths do not describe a prefix code
+     */
+    CodeTable (int[] symbols, int[] lengths) {
+        int n = symbols.length;
+
+        //canonical order: by length, then by symbol (packed so one sort does it)
+        long[] order = new long[n];
+        for (int i = 0; i < n; i++) {
+            if (lengths[i] < 1 || lengths[i] > MAX_CODE_LENGTH) {
+                throw new IllegalArgumentException("Invalid code length: " + lengths[i]);
+            }
+            order[i] = ((long) lengths[i] << 32) | (symbols[i] & 0xFFFFFFFFL);
+        }
+        Arrays.sort(order);
+
+        this.symbols = new int[n];
+        this.lengths = new byte[n];
+        this.codes = new int[n];
+
+        long code = 0;
+        int previous = 0;
+        for (int i = 0; i < n; i++) {
+            int length = (int) (order[i] >>> 32);
+            if (i > 0) {
+                code++;
+            }
+            code <<= length - previous;
+            if (code >>> length != 0) {
+                throw new IllegalArgumentException("Code lengths oversubscribe the code space");
+            }
+            this.symbols[i] = (int) order[i];
+            this.lengths[i] = (byte) length;
+            this.codes[i] = (int) code;
+            previous = length;
+        }
+        this.maxLength = previous;
+
+        int escapeIndex = -1;
+        for (int i = 0; i < n; i++) {
+            if (this.symbols[i] == ESCAPE) {
+                escapeIndex = i;
+            }
+        }
+        this.escapeIndex = escapeIndex;
+        this.indexOf = new SymbolMap(this.symbols, escapeIndex);
+    }
+
+    /**
+     * @param symbol any symbol
+     * @return the code length of the symbol, 0 if it is not in the alphabet
+     */
+    int length (int symbol) {
+        int index = indexOf.get(symbol);
+        return index < 0 ? 0 : lengths[index];
+    }
+
+    /**
+     * Writes the codeword for the given symbol, or if it is not in the
+     * alphabet, the escape codeword followed by the symbol as a literal
+     * @param symbol the symbol to encode
+     * @param out writer receiving the codeword
+     * @throws IllegalArgumentException if the symbol is not in the alphabet
+     *         and the code has no escape
+     */
+    void encode (int symbol, BitWriter out) {
+        int index = indexOf.get(symbol);
+        if (index < 0) {
+            if (escapeIndex < 0 || symbol < 0 || symbol > Character.MAX_CODE_POINT) {
+                throw new IllegalArgumentException("Symbol not in encoding map: " + symbol);
+            }
+            out.write(codes[escapeIndex], lengths[escapeIndex]);
+            out.write(symbol, LITERAL_BITS);
+            return;
+        }
+        out.write(codes[index], lengths[index]);
+    }
+
+    // -----------------------------------------------
+    // Serialization
+    // -----------------------------------------------
+
+    /**
+     * Writes the code as a compact header: the number of symbols, then for
+     * each symbol in increasing order its distance from the previous symbol
+     * (minus one) and its code length. Codewords themselves are never written.
+     * @param out stream to append the header to
+     */
+    void writeHeader (ByteArrayOutputStream out) {
+        int[] bySymbol = sortedBySymbol();
+        Varint.write(out, bySymbol.length);
+        int previous = -1;
+        for (int index : bySymbol) {
+            Varint.write(out, symbols[index] - previous - 1);
+            out.write(lengths[index]);
+            previous = symbols[index];
+        }
+    }
+
+    /**
+     * Rebuilds a code from a header written by {@link #writeHeader}
+     * @param in buffer positioned at the header, advanced past it
+     * @return the canonical code described by the header
+     */
+    static CodeTable readHeader (ByteBuffer in) {
+        int n = Varint.readInt(in);
+        if (n == 0 || n > in.remaining()) {
+            throw new IllegalArgumentException("Invalid symbol count: " + n);
+        }
+        int[] symbols = new int[n];
+        int[] lengths = new int[n];
+        long previous = -1;
+        for (int i = 0; i < n; i++) {
+            previous += Varint.read(in) + 1;
+            if (previous > ESCAPE || !in.hasRemaining()) {
+                throw new IllegalArgumentException("Malformed code length header");
+            }
+            symbols[i] = (int) previous;
+            lengths[i] = in.get();
+        }
+        return new CodeTable(symbols, lengths);
+    }
+
+    private int[] sortedBySymbol () {
+        long[] order = new long[symbols.length];
+        for (int i = 0; i < symbols.length; i++) {
+            order[i] = ((long) symbols[i] << 32) | i;
+        }
+        Arrays.sort(order);
+        int[] indices = new int[order.length];
+        for (int i = 0; i < order.length; i++) {
+            indices[i] = (int) order[i];
+        }
+        return indices;
+    }
+
+}
@@ -0,0 +1,224 @@
+package huffman;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Order-1 context modeled Huffman coding: instead of one code for the whole
+ * corpus, every character that is common enough in the training corpus gets
+ * its own code for the character that follows it (after "q", "u" costs next
+ * to nothing). Rare contexts, and the first character of a message, use the
+ * plain order-0 code. A context's code only covers the characters seen
+ * following it in the corpus, plus a fallback symbol that hands the next
+ * character to the order-0 code, so a model's size grows with the number of
+ * distinct character pairs rather than with contexts times the alphabet.
+ * Any message the order-0 code can encode can be encoded here (with an
+ * escape, any message at all). Instances never change once built and can
+ * be shared between threads.
+ */
+public final class ContextHuffman {
+
+    /**
+     * Contexts seen fewer times than this in the training corpus use the
+     * order-0 code, since a code from so few samples would just be noise
+     * (and its table would cost more memory than it saves output)
+     */
+    static final int MIN_CONTEXT_COUNT = 32;
+
+    /**
+     * The symbol in a context's code that says the next character is coded
+     * with the order-0 code instead; above every code point and the escape
+     */
+    static final int FALLBACK = CodeTable.ESCAPE + 1;
+
+    // codes[0] is the order-0 code; contextOf[c] is the index into codes of
+    // the code for characters following c (0 for rare or unseen contexts)
+    private final CodeTable[] codes;
+    private final DecodeTable[] decodeTables;
+    private final int[] contextOf;
+
+    /**
+     * Builds the order-0 code and a code per common context from the
+     * character pairs in the given text corpus, with no escape
+     * @param corpus a text corpus with distributions comparable to the
+     *        messages compressed later (see {@link Huffman#Huffman(String)})
+     * @throws IllegalArgumentException if the corpus is empty
+     */
+    ContextHuffman (String corpus) {
+        this(corpus, false);
+    }
+
+    /**
+     * Builds the order-0 code and a code per common context from the
+     * character pairs in the given text corpus
+     * @param corpus a text corpus with distributions comparable to the
+     *        messages compressed later (see {@link Huffman#Huffman(String)})
+     * @param escape whether to add an escape code to the order-0 code, for
+     *        characters missing from the corpus (see
+     *        {@link Huffman#Huffman(String, int, boolean)})
+     * @throws IllegalArgumentException if the corpus is empty
+     */
+    ContextHuffman (String corpus, boolean escape) {
+        if (corpus.isEmpty()) {
+            throw new IllegalArgumentException("Empty corpus");
+        }
+
+        //the alphabet, with the escape (the rarest symbol of all) last
+        long[] histogram = Huffman.countFrequencies(corpus);
+        int n = 0;
+        int maxSymbol = 0;
+        for (int c = 0; c < histogram.length; c++) {
+            if (histogram[c] != 0) {
+                n++;
+                maxSymbol = c;
+            }
+        }
+        int[] symbols = new int[n + (escape ? 1 : 0)];
+        long[] weights = new long[symbols.length];
+        for (int c = 0, i = 0; c <= maxSymbol; c++) {
+            if (histogram[c] != 0) {
+                symbols[i] = c;
+                weights[i++] = histogram[c];
+            }
+        }
+        if (escape) {
+            symbols[n] = CodeTable.ESCAPE;
+            weights[n] = 1;
+        }
+
+        //contexts common enough to get a code of their own
+        this.contextOf = new int[maxSymbol + 1];
+        int contexts = 1;
+        for (int i = 0; i < n; i++) {
+            //the last character of the corpus is never followed by anything
+            long followed = histogram[symbols[i]] - (corpus.charAt(corpus.length() - 1) == symbols[i] ? 1 : 0);
+            if (followed >= MIN_CONTEXT_COUNT) {
+                contextOf[symbols[i]] = contexts++;
+            }
+        }
+
+        this.codes = new CodeTable[contexts];
+        this.decodeTables = new DecodeTable[contexts];
+        codes[0] = new CodeTable(symbols, PackageMerge.codeLengths(weights, CodeTable.MAX_CODE_LENGTH));
+        decodeTables[0] = new DecodeTable(codes[0]);
+
+        //the pairs in common contexts, packed as (context, character) so one
+        //sort groups each context's successors together, in character order
+        long[] pairs = new long[corpus.length() - 1];
+        int pairCount = 0;
+        for (int i = 1; i < corpus.length(); i++) {
+            int k = contextOf[corpus.charAt(i - 1)];
+            if (k != 0) {
+                pairs[pairCount++] = ((long) k << 16) | corpus.charAt(i);
+            }
+        }
+        Arrays.sort(pairs, 0, pairCount);
+
+        //each context's code: its successors by count, plus the fallback,
+        //weighted like an escape in PPM (once per distinct successor)
+        for (int from = 0, to; from < pairCount; from = to) {
+            int k = (int) (pairs[from] >>> 16);
+            int distinct = 0;
+            for (to = from; to < pairCount && pairs[to] >>> 16 == k; to++) {
+                if (to == from || pairs[to] != pairs[to - 1]) {
+                    distinct++;
+                }
+            }
+            int[] successors = new int[distinct + 1];
+            long[] counts = new long[distinct + 1];
+            for (int i = from, j = -1; i < to; i++) {
+                if (i == from || pairs[i] != pairs[i - 1]) {
+                    successors[++j] = (int) (pairs[i] & 0xFFFF);
+                }
+                counts[j]++;
+            }
+            successors[distinct] = FALLBACK;
+            counts[distinct] = distinct;
+            codes[k] = new CodeTable(successors, PackageMerge.codeLengths(counts, CodeTable.MAX_CODE_LENGTH));
+            decodeTables[k] = new DecodeTable(codes[k]);
+        }
+    }
+
+    private int contextAfter (int c) {
+        return c < contextOf.length ? contextOf[c] : 0;
+    }
+
+    /**
+     * @return number of codes in the model, counting the order-0 code
+     */
+    int codeCount () {
+        return codes.length;
+    }
+
+    /**
+     * @return number of symbols over all the model's codes, counting each
+     *         context's fallback and the escape
+     */
+    int symbolCount () {
+        int symbols = 0;
+        for (CodeTable code : codes) {
+            symbols += code.symbols.length;
+        }
+        return symbols;
+    }
+
+    /**
+     * Compresses the given String message, coding each character with the
+     * code of the character before it
+     * @param message String representing the corpus to compress.
+     * @return {@code byte[]} formatted like {@link Huffman#compress(String)}:
+     *         (1) the number of characters in the message as a varint,
+     *         (2) the bitstring, 0-padded to a whole byte
+     * @throws IllegalArgumentException if a character is not in the alphabet
+     *         of the training corpus, and the model has no escape
+     */
+    public byte[] compress (String message) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Varint.write(out, message.length());
+
+        BitWriter bits = new BitWriter(message.length() / 2 + 8);
+        int context = 0;
+        for (int i = 0; i < message.length(); i++) {
+            char c = message.charAt(i);
+            if (context != 0 && codes[context].length(c) == 0) {
+                codes[context].encode(FALLBACK, bits);
+                context = 0;
+            }
+            codes[context].encode(c, bits);
+            context = contextAfter(c);
+        }
+        bits.flush();
+        out.write(bits.buffer().array(), 0, bits.buffer().position());
+        return out.toByteArray();
+    }
+
+    /**
+     * Decompresses a message written by {@link #compress(String)} with a
+     * model built from the same corpus
+     * @param compressedMsg {@code byte[]} holding the compressed message
+     * @return Decompressed String representation of the compressed message.
+     * @throws IllegalArgumentException if the message is truncated
+     */
+    public String decompress (byte[] compressedMsg) {
+        ByteBuffer header = ByteBuffer.wrap(compressedMsg);
+        int length = Varint.readCount(header);
+
+        BitReader bits = new BitReader(header, header.position(), compressedMsg.length);
+        char[] uncompressedMsg = new char[length];
+        int context = 0;
+        for (int i = 0; i < length; i++) {
+            int c = decodeTables[context].decodeSymbol(bits);
+            if (c == FALLBACK) {
+                c = decodeTables[0].decodeSymbol(bits);
+            }
+            uncompressedMsg[i] = (char) c;
+            context = contextAfter(c);
+        }
+        if (bits.overrun()) {
+            throw new IllegalArgumentException("Truncated message");
+        }
+        return new String(uncompressedMsg);
+    }
+
+}
@@ -0,0 +1,221 @@
+package huffman;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Multi-level lookup table for decoding a prefix code several bits at a time.
+ * The root table is indexed by the next (up to) TABLE_BITS bits of input; each
+ * entry either names the symbol whose codeword is a prefix of those bits (and
+ * how many bits it actually used), or links to a sub-table for the codewords
+ * that are longer than the root table is wide. This replaces walking the
+ * Huffman Trie one bit (and one pointer) at a time.
+ */
+final class DecodeTable {
+
+    /**
+     * Widest table we ever build; 2^10 ints = 4KB keeps the root table in L1
+     */
+    static final int TABLE_BITS = 10;
+
+    // Entry layout (one int per entry):
+    //   leaf: [ symbol index : 27 | 0 | bits used : 4 ]
+    //   link: [ offset : 23 | width : 4 | 1 | 0000 ]
+    private static final int LINK = 1 << 4;
+    private static final int USED_MASK = 0xF;
+
+    private int[] table;
+    private int size;          // ints of table in use (sub-tables are appended)
+    private final int rootBits;
+    private final int[] symbols;
+    private final int escapeIndex;
+
+    /**
+     * Builds the decoding tables for the given canonical code
+     * @param code the code to decode; the symbol indices returned by
+     *        {@link #decode} are its dense indices
+     */
+    DecodeTable (CodeTable code) {
+        this.table = new int[1 << TABLE_BITS];
+        this.rootBits = Math.max(1, Math.min(TABLE_BITS, code.maxLength));
+        this.symbols = code.symbols;
+        this.escapeIndex = code.escapeIndex;
+        //canonical order is also the order of the codewords read as bitstrings,
+        //so every group sharing a prefix is already side by side
+        build(code, 0, code.symbols.length, 0, rootBits);
+        this.table = Arrays.copyOf(table, size);
+    }
+
+    /**
+     * Fills a (sub-)table for the codewords of indices [from, to), all of
+     * which share their first depth bits, recursing for those too long to fit.
+     * @return offset of the table within the table array
+     */
+    private int build (CodeTable code, int from, int to, int depth, int width) {
+        int offset = allocate(1 << width);
+        int i = from;
+        while (i < to) {
+            int remaining = code.lengths[i] - depth;
+            if (remaining <= width) {
+                //short enough: repeat the entry for every possible suffix of the codeword
+                int first = chunk(code, i, depth, remaining) << (width - remaining);
+                int entry = (i << 5) | remaining;
+                Arrays.fill(table, offset + first, offset + first + (1 << (width - remaining)), entry);
+                i++;
+            }
+            else {
+                //too long: gather everyone sharing the next width bits into a sub-table
+                int prefix = chunk(code, i, depth, width);
+                int j = i + 1;
+                while (j < to && code.lengths[j] > depth + width && chunk(code, j, depth, width) == prefix) {
+                    j++;
+                }
+                //canonical order means the last of the group is the longest
+                int subWidth = Math.min(TABLE_BITS, code.lengths[j - 1] - depth - width);
+                int sub = build(code, i, j, depth + width, subWidth);
+                table[offset + prefix] = (sub << 9) | (subWidth << 5) | LINK;
+                i = j;
+            }
+        }
+        return offset;
+    }
+
+    private int allocate (int entries) {
+        if (size + entries > table.length) {
+            table = Arrays.copyOf(table, Math.max(table.length * 2, size + entries));
+        }
+        size += entries;
+        return size - entries;
+    }
+
+    /**
+     * @return bits [from, from + bits) of the codeword at the given index
+     */
+    private static int chunk (CodeTable code, int index, int from, int bits) {
+        int shift = code.lengths[index] - from - bits;
+        return (int) ((code.codes[index] & 0xFFFFFFFFL) >>> shift) & ((1 << bits) - 1);
+    }
+
+    /**
+     * Decodes the next symbol from the given reader
+     * @param in reader positioned at the start of a codeword
+     * @return the (dense) index of the decoded symbol
+     */
+    int decode (BitReader in) {
+        int width = rootBits;
+        int entry = table[in.peek(width)];
+        while ((entry & LINK) != 0) {
+            in.skip(width);
+            width = (entry >>> 5) & USED_MASK;
+            entry = table[(entry >>> 9) + in.peek(width)];
+        }
+        in.skip(entry & USED_MASK);
+        return entry >>> 5;
+    }
+    
+    /**
+     * Decodes four bitstrings in lockstep, one symbol from each per round,
+     * for as long as every one of them has 8 bytes left to read a window
+     * from. Each stream's state is a single bit position kept in a local, so
+     * the four decodes of a round are independent chains the CPU can overlap.
+     * Symbols of stream k go to dst[at + k * segment + round].
+     * @param buf buffer holding the bitstrings (big-endian)
+     * @param starts index of the first byte of each stream
+     * @param ends index one past the last byte of each stream
+     * @param positions bit position reached in each stream, read and updated
+     * @param dst array receiving the characters
+     * @param at index in dst of stream 0's first character
+     * @param segment distance in dst between consecutive streams' characters
+     * @param rounds most rounds to decode
+     * @return number of rounds decoded; the rest is left to {@link #decodeSymbol}
+     */
+    int decode4 (ByteBuffer buf, int[] starts, int[] ends, long[] positions, char[] dst, int at, int segment, int rounds) {
+        int[] table = this.table;
+        int[] symbols = this.symbols;
+        int escape = this.escapeIndex;
+        int rootShift = 64 - rootBits;
+        int s0 = starts[0], s1 = starts[1], s2 = starts[2], s3 = starts[3];
+        long last0 = ends[0] - 8 - s0, last1 = ends[1] - 8 - s1, last2 = ends[2] - 8 - s2, last3 = ends[3] - 8 - s3;
+        long b0 = positions[0], b1 = positions[1], b2 = positions[2], b3 = positions[3];
+        int d0 = at, d1 = at + segment, d2 = at + 2 * segment, d3 = at + 3 * segment;
+        int round = 0;
+        for (; round < rounds; round++) {
+            if ((b0 >>> 3) > last0 || (b1 >>> 3) > last1 || (b2 >>> 3) > last2 || (b3 >>> 3) > last3) {
+                break;
+            }
+            long r0 = b0, r1 = b1, r2 = b2, r3 = b3;
+            long w0 = buf.getLong(s0 + (int) (b0 >>> 3)) << (b0 & 7);
+            long w1 = buf.getLong(s1 + (int) (b1 >>> 3)) << (b1 & 7);
+            long w2 = buf.getLong(s2 + (int) (b2 >>> 3)) << (b2 & 7);
+            long w3 = buf.getLong(s3 + (int) (b3 >>> 3)) << (b3 & 7);
+            int e0 = table[(int) (w0 >>> rootShift)];
+            int e1 = table[(int) (w1 >>> rootShift)];
+            int e2 = table[(int) (w2 >>> rootShift)];
+            int e3 = table[(int) (w3 >>> rootShift)];
+            if (((e0 | e1 | e2 | e3) & LINK) != 0) {
+                //a codeword longer than the root table: rare for any skewed text
+                for (int width = rootBits; (e0 & LINK) != 0; ) {
+                    b0 += width;
+                    w0 <<= width;
+                    width = (e0 >>> 5) & USED_MASK;
+                    e0 = table[(e0 >>> 9) + (int) (w0 >>> (64 - width))];
+                }
+                for (int width = rootBits; (e1 & LINK) != 0; ) {
+                    b1 += width;
+                    w1 <<= width;
+                    width = (e1 >>> 5) & USED_MASK;
+                    e1 = table[(e1 >>> 9) + (int) (w1 >>> (64 - width))];
+                }
+                for (int width = rootBits; (e2 & LINK) != 0; ) {
+                    b2 += width;
+                    w2 <<= width;
+                    width = (e2 >>> 5) & USED_MASK;
+                    e2 = table[(e2 >>> 9) + (int) (w2 >>> (64 - width))];
+                }
+                for (int width = rootBits; (e3 & LINK) != 0; ) {
+                    b3 += width;
+                    w3 <<= width;
+                    width = (e3 >>> 5) & USED_MASK;
+                    e3 = table[(e3 >>> 9) + (int) (w3 >>> (64 - width))];
+                }
+            }
+            b0 += e0 & USED_MASK;
+            b1 += e1 & USED_MASK;
+            b2 += e2 & USED_MASK;
+            b3 += e3 & USED_MASK;
+            int i0 = e0 >>> 5, i1 = e1 >>> 5, i2 = e2 >>> 5, i3 = e3 >>> 5;
+            if (i0 == escape || i1 == escape || i2 == escape || i3 == escape) {
+                //undo the round and leave escapes to the general path
+                b0 = r0;
+                b1 = r1;
+                b2 = r2;
+                b3 = r3;
+                break;
+            }
+            dst[d0++] = (char) symbols[i0];
+            dst[d1++] = (char) symbols[i1];
+            dst[d2++] = (char) symbols[i2];
+            dst[d3++] = (char) symbols[i3];
+        }
+        positions[0] = b0;
+        positions[1] = b1;
+        positions[2] = b2;
+        positions[3] = b3;
+        return round;
+    }
+    
+    /**
+     * Decodes the next symbol from the given reader, reading the literal
+     * that follows the escape codeword if that is what was decoded
+     * @param in reader positioned at the start of a codeword
+     * @return the decoded symbol
+     */
+    int decodeSymbol (BitReader in) {
+        int index = decode(in);
+        if (index == escapeIndex) {
+            return in.read(CodeTable.LITERAL_BITS);
+        }
+        return symbols[index];
+    }
+
+}
@@ -0,0 +1,192 @@
+package huffman;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.SplittableRandom;
+
+/**
+ * Builds the character histogram for training a {@link Huffman} model from a
+ * random sample of a corpus's blocks instead of every character, so models
+ * can be retrained on huge corpora cheaply. Code lengths only depend on the
+ * relative frequencies, which a sample estimates well: the expected cost of
+ * training on n sampled characters of a k character alphabet, instead of the
+ * whole corpus, is about (k - 1) / (2 n ln 2) bits per character. Every
+ * block is counted until that estimate drops below the allowed loss, and
+ * from then on blocks are counted with the given probability, so corpora too
+ * small to sample are simply counted in full.
+ * <p>
+ * Characters that no sampled block contains are left out of the model, so
+ * unless it is built with an escape code, a model trained this way may be
+ * unable to encode very rare characters. Samplers are not thread-safe.
+ */
+public final class HistogramSampler {
+
+    /**
+     * Characters (or bytes) per block: the unit that is either counted or skipped
+     */
+    static final int SAMPLE_BLOCK_SIZE = 1 << 12;
+
+    private final double fraction;
+    private final double maxLoss;
+    private final SplittableRandom random;
+    private final long[] histogram = new long[Character.MAX_VALUE + 1];
+    private long sampled;  // characters counted
+    private long seen;     // characters offered, counted or not
+    private int distinct;  // characters with a nonzero count
+
+    /**
+     * Creates an empty sampler
+     * @param fraction probability of counting a block once the loss
+     *        estimate is below maxLoss, 0 < fraction <= 1
+     * @param maxLoss largest estimated loss, in bits per character, at
+     *        which blocks start being skipped (> 0)
+     * @param seed seed for choosing blocks, so the same corpus always gets
+     *        the same sample
+     */
+    public HistogramSampler (double fraction, double maxLoss, long seed) {
+        if (!(fraction > 0 && fraction <= 1)) {
+            throw new IllegalArgumentException("Invalid sampling fraction: " + fraction);
+        }
+        if (!(maxLoss > 0)) {
+            throw new IllegalArgumentException("Invalid loss bound: " + maxLoss);
+        }
+        this.fraction = fraction;
+        this.maxLoss = maxLoss;
+        this.random = new SplittableRandom(seed);
+    }
+
+    /**
+     * Offers the blocks of the given text to the sample
+     * @param text part of the training corpus
+     * @return this sampler
+     */
+    public HistogramSampler add (CharSequence text) {
+        for (int from = 0; from < text.length(); from += SAMPLE_BLOCK_SIZE) {
+            int to = Math.min(text.length(), from + SAMPLE_BLOCK_SIZE);
+            seen += to - from;
+            if (take()) {
+                for (int i = from; i < to; i++) {
+                    count(text.charAt(i));
+                }
+                sampled += to - from;
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Offers the blocks of everything readable from the given stream to the
+     * sample, as bytes (each byte counting as the character with the same
+     * value, as in {@link Huffman#Huffman(byte[])}). Skipped blocks are
+     * {@link InputStream#skip skipped}, which for files costs no reading.
+     * @param in part of the training corpus, read until its end
+     * @return this sampler
+     * @throws IOException if reading fails
+     */
+    public HistogramSampler add (InputStream in) throws IOException {
+        byte[] block = new byte[SAMPLE_BLOCK_SIZE];
+        while (true) {
+            if (take()) {
+                int length = readBlock(in, block);
+                for (int i = 0; i < length; i++) {
+                    count(block[i] & 0xFF);
+                }
+                sampled += length;
+                seen += length;
+                if (length < block.length) {
+                    return this;
+                }
+            }
+            else {
+                long skipped = in.skip(SAMPLE_BLOCK_SIZE);
+                //skip() may stop short without being at the end; read to be sure
+                while (skipped < SAMPLE_BLOCK_SIZE && in.read() != -1) {
+                    skipped += 1 + in.skip(SAMPLE_BLOCK_SIZE - skipped - 1);
+                }
+                seen += skipped;
+                if (skipped < SAMPLE_BLOCK_SIZE) {
+                    return this;
+                }
+            }
+        }
+    }
+
+    private static int readBlock (InputStream in, byte[] block) throws IOException {
+        int length = 0;
+        int read;
+        while (length < block.length && (read = in.read(block, length, block.length - length)) != -1) {
+            length += read;
+        }
+        return length;
+    }
+
+    private boolean take () {
+        return estimatedLoss() > maxLoss || random.nextDouble() < fraction;
+    }
+
+    private void count (int c) {
+        if (histogram[c]++ == 0) {
+            distinct++;
+        }
+    }
+
+    /**
+     * @return the expected extra cost, in bits per character, of a model
+     *         trained on the sample instead of the whole corpus, i.e.
+     *         (k - 1) / (2 n ln 2) for k distinct characters in n sampled
+     *         characters (infinite before anything is sampled)
+     */
+    public double estimatedLoss () {
+        if (sampled == 0) {
+            return Double.POSITIVE_INFINITY;
+        }
+        return (distinct - 1) / (2 * sampled * Math.log(2));
+    }
+
+    /**
+     * @return number of characters counted so far
+     */
+    public long sampledCount () {
+        return sampled;
+    }
+
+    /**
+     * @return number of characters offered so far, counted or skipped
+     */
+    public long seenCount () {
+        return seen;
+    }
+
+    /**
+     * @return a model built from the sampled histogram
+     * @throws IllegalArgumentException if nothing has been sampled
+     */
+    public Huffman build () {
+        return build(CodeTable.MAX_CODE_LENGTH);
+    }
+
+    /**
+     * @param maxCodeLength the longest codeword allowed, 1..32
+     * @return a model built from the sampled histogram, as
+     *         {@link Huffman#Huffman(String, int)} would
+     * @throws IllegalArgumentException if nothing has been sampled, or the
+     *         sample has more than 2^maxCodeLength distinct characters
+     */
+    public Huffman build (int maxCodeLength) {
+        return build(maxCodeLength, false);
+    }
+
+    /**
+     * @param maxCodeLength the longest codeword allowed, 1..32
+     * @param escape whether to add an escape code for characters missing
+     *        from the sample
+     * @return a model built from the sampled histogram, as
+     *         {@link Huffman#Huffman(String, int, boolean)} would
+     * @throws IllegalArgumentException if nothing has been sampled, or the
+     *         sample has too many distinct characters for maxCodeLength
+     */
+    public Huffman build (int maxCodeLength, boolean escape) {
+        return new Huffman(histogram.clone(), maxCodeLength, escape);
+    }
+
+}
@@ -1,23 +1,110 @@
 package huffman;
 
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.math.BigInteger;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
 
 /**
  * Huffman instances provide reusable Huffman Encoding Maps for
  * compressing and decompressing text corpi with comparable
- * distributions of characters.
+ * distributions of characters. Instances never change once built, so one
+ * instance can be shared by any number of threads (see {@link HuffmanRegistry}).
  */
 public class Huffman {
     
+    /**
+     * Number of input bytes encoded per block by the streaming methods
+     */
+    static final int STREAM_BLOCK_SIZE = 1 << 16;
+    
+    /**
+     * Largest block the streaming methods will accept when decompressing
+     */
+    static final int MAX_BLOCK_SIZE = 1 << 24;
+    
+    /**
+     * Default number of characters per block for the block-parallel methods
+     */
+    static final int PARALLEL_BLOCK_SIZE = 1 << 18;
+    
+    /**
+     * Default number of interleaved sub-streams for the interleaved methods
+     */
+    static final int INTERLEAVED_STREAMS = 4;
+    
+    /**
+     * Most interleaved sub-streams a message may be split into
+     */
+    static final int MAX_INTERLEAVED_STREAMS = 16;
+    
+    /**
+     * Default number of characters between sync points for the indexed methods
+     */
+    static final int SYNC_INTERVAL = 1 << 12;
+    
+    /**
+     * Corpi at least this long have their characters counted in parallel
+     */
+    static final int PARALLEL_COUNT_THRESHOLD = 1 << 22;
+    
+    /**
+     * Bytes of a file mapped at once by the memory-mapped file methods (a
+     * multiple of STREAM_BLOCK_SIZE)
+     */
+    static final int MAP_WINDOW_SIZE = 1 << 28;
+    
+    /**
+     * Second magic byte of a model file (the first is BlockFormat.MAGIC)
+     */
+    private static final int MODEL_MAGIC = 'M';
+    
+    /**
+     * Format version of a model file, apart from the block format's since
+     * version 2 added the model's entropy and expected bits
+     */
+    private static final int MODEL_VERSION = 2;
+    
+    /**
+     * Bytes ahead of the code length header in a model file: both magic
+     * bytes and the version
+     */
+    private static final int MODEL_PREFIX = 3;
+    
+    /**
+     * Room left at the end of a mapped window for a whole block header
+     * (two varints of at most 10 bytes each)
+     */
+    private static final int BLOCK_HEADER_ROOM = 20;
+    
     // -----------------------------------------------
     // Construction
     // -----------------------------------------------
 
-    private HuffNode trieRoot;
-    private TreeMap<Character, String> encodingMap;
+    private final CodeTable codeTable;     // canonical codewords, rebuilt from the trie's code lengths
+    private final DecodeTable decodeTable; // multi-bit lookup tables for the codeTable
+    private final double entropy;          // of the training corpus, bits per character (NaN if unknown)
+    private final double expectedBits;     // average code length over the training corpus (NaN if unknown)
+    private final HuffmanMetrics metrics;
     
     /**
      * Creates the Huffman Trie and Encoding Map using the character
@@ -29,133 +116,356 @@ public class Huffman {
      *        differ.
      */
     Huffman (String corpus) {
+        this(corpus, CodeTable.MAX_CODE_LENGTH);
+    }
+    
+    /**
+     * Creates the Huffman Trie and Encoding Map using the character
+     * distributions in the given text corpus, with no codeword longer than
+     * maxCodeLength bits. Capping the length keeps the decoding tables small
+     * (a cap of at most DecodeTable.TABLE_BITS means one lookup per character)
+     * at the price of a slightly worse compression ratio on skewed corpi.
+     * @param corpus A String representing a message / document corpus
+     *        (see {@link #Huffman(String)})
+     * @param maxCodeLength the longest codeword allowed, 1..32
+     * @throws IllegalArgumentException if the corpus has more than
+     *         2^maxCodeLength distinct characters
+     */
+    Huffman (String corpus, int maxCodeLength) {
+        this(countFrequencies(corpus), maxCodeLength, false);
+    }
+    
+    /**
+     * Creates the Huffman Trie and Encoding Map using the character
+     * distributions in the given text corpus (see {@link #Huffman(String, int)}),
+     * optionally with an escape code. With an escape, characters that never
+     * appear in the corpus can still be compressed, as the escape codeword
+     * followed by the character's 21-bit code point, so a shared model can
+     * take any input; the escape codeword only costs the corpus's characters
+     * a fraction of a bit.
+     * @param corpus A String representing a message / document corpus
+     *        (see {@link #Huffman(String)})
+     * @param maxCodeLength the longest codeword allowed, 1..32
+     * @param escape whether to add the escape code
+     * @throws IllegalArgumentException if the corpus has more than
+     *         2^maxCodeLength distinct characters (counting the escape)
+     */
+    Huffman (String corpus, int maxCodeLength, boolean escape) {
+        this(countFrequencies(corpus), maxCodeLength, escape);
+    }
+    
+    /**
+     * Creates the Huffman Trie and Encoding Map for binary data, using the
+     * distribution of byte values (a 256 symbol alphabet) in the given corpus.
+     * Each byte is modeled as the character with the same value, so the
+     * instance works with both the String and the byte methods.
+     * @param corpus bytes with distributions comparable to those compressed later
+     */
+    Huffman (byte[] corpus) {
+        this(ByteBuffer.wrap(corpus));
+    }
+    
+    /**
+     * Creates the Huffman Trie and Encoding Map for binary data, using the
+     * distribution of byte values in the remaining bytes of the given buffer
+     * (see {@link #Huffman(byte[])}); the buffer's position is not changed
+     * @param corpus bytes with distributions comparable to those compressed later
+     */
+    Huffman (ByteBuffer corpus) {
+        this(countFrequencies(corpus), CodeTable.MAX_CODE_LENGTH, false);
+    }
+    
+    /**
+     * Creates the Huffman Trie and Encoding Map from already counted
+     * character frequencies
+     * @param histogram the frequency of each character, indexed by character
+     * @param maxCodeLength the longest codeword allowed, 1..32
+     * @param escape whether to add the escape code (see {@link #Huffman(String, int, boolean)})
+     */
+    Huffman (long[] histogram, int maxCodeLength, boolean escape) {
+        this(Alphabet.of(histogram), maxCodeLength, escape);
+    }
+    
+    /**
+     * Creates the Huffman Trie and Encoding Map for a corpus of int symbols,
+     * either Unicode code points (e.g. from {@link String#codePoints()}, so
+     * that supplementary characters are modeled whole instead of as two
+     * surrogates) or ids of anything else, such as word tokens. The alphabet
+     * can be large and sparse: tables are sized by the number of distinct
+     * symbols, not by the largest. See {@link #compress(int[])} and
+     * {@link #compressCodePoints(String)}.
+     * @param corpus symbols with distributions comparable to those compressed
+     *        later, each 0..Character.MAX_CODE_POINT
+     * @param maxCodeLength the longest codeword allowed, 1..32
+     * @param escape whether to add the escape code (see {@link #Huffman(String, int, boolean)})
+     * @throws IllegalArgumentException if a symbol is out of range, or there
+     *         are more than 2^maxCodeLength distinct symbols
+     */
+    Huffman (int[] corpus, int maxCodeLength, boolean escape) {
+        this(Alphabet.of(corpus), maxCodeLength, escape);
+    }
+    
+    /**
+     * Creates the Huffman Trie and Encoding Map for a corpus of int symbols,
+     * with no cap on code lengths and no escape (see {@link #Huffman(int[], int, boolean)})
+     * @param corpus symbols with distributions comparable to those compressed later
+     */
+    Huffman (int[] corpus) {
+        this(corpus, CodeTable.MAX_CODE_LENGTH, false);
+    }
+    
+    /**
+     * Creates a Huffman instance for a code built from the given frequencies,
+     * which are kept only as the model's entropy and expected code length
+     */
+    private Huffman (Alphabet alphabet, int maxCodeLength, boolean escape) {
+        this(buildCode(alphabet, maxCodeLength, escape), alphabet);
+    }
+    
+    private Huffman (CodeTable code, Alphabet alphabet) {
+        this(code, new DecodeTable(code), entropy(alphabet.weights), expectedBits(code, alphabet), HuffmanMetrics.NONE);
+    }
+    
+    /**
+     * Creates a Huffman instance straight from a canonical code, as when
+     * reading one back from a code length header
+     * @param code the canonical code to compress / decompress with
+     */
+    private Huffman (CodeTable code) {
+        this(code, new DecodeTable(code), Double.NaN, Double.NaN, HuffmanMetrics.NONE);
+    }
+    
+    private Huffman (CodeTable code, DecodeTable decodeTable, double entropy, double expectedBits, HuffmanMetrics metrics) {
+        this.codeTable = code;
+        this.decodeTable = decodeTable;
+        this.entropy = entropy;
+        this.expectedBits = expectedBits;
+        this.metrics = metrics;
+    }
+    
+    /**
+     * Builds the canonical code for the given symbol frequencies
+     * @param alphabet the symbols and their frequencies
+     * @param maxCodeLength the longest codeword allowed, 1..32
+     * @param escape whether to add the escape code
+     * @return the canonical code, with code lengths from the Huffman Trie
+     *         (or from package-merge when the trie is deeper than allowed)
+     */
+    private static CodeTable buildCode (Alphabet alphabet, int maxCodeLength, boolean escape) {
+        
+        if(maxCodeLength < 1 || maxCodeLength > CodeTable.MAX_CODE_LENGTH)
+        {
+            throw new IllegalArgumentException("Invalid maximum code length: " + maxCodeLength);
+        }
         
         /*
          * Psuedo-Code (left for readability)
          * 1. Find frequency of characters in corpus (see private helper function)
-         * 2. Construct priority queue based on frequency
-         * 3. Begin tree construction
-         * 4. WHILE |QUEUE| > 1
-         * 5. Pop (dequeue) two from queue 
+         * 2. Sort the characters by frequency
+         * 3. Begin tree construction with two queues: sorted leaves, and
+         *    parents (which come out in sorted order for free)
+         * 4. WHILE there is more than one node left
+         * 5. Take the two smallest from the fronts of the queues
          * 6. Connect them to one node
-         * 7. Place new parents (with frequency = sum of frequncy of children) onto queue
+         * 7. Place new parents (with frequency = sum of frequncy of children) onto the parent queue
          * 8. END LOOP
-         * 9. Now, create an encoding map by visiting each leaf and finding its character and sequence
-         * 9. Return
+         * 9. Now, give every leaf its depth as its code length, top-down over the parents
+         * 10. Return
          */
         
-        PriorityQueue<HuffNode> pq = new PriorityQueue<HuffNode>(); //The priority node for the Trie creation
-        
-        TreeMap<Character, Integer> freqMap = constructFrequencyMap(corpus); //temporary variable holding characters and frequency
-        
-        
-        //copy treemap to priorityqueue by placing character and frequency in HuffNode
-        for(Map.Entry entry : freqMap.entrySet()) {
-            pq.add(new HuffNode((char)entry.getKey(), (int)entry.getValue()));
+        //the alphabet in symbol order, the escape (the rarest symbol of all,
+        //sorting after every character) last
+        int n = alphabet.symbols.length + (escape ? 1 : 0);
+        if(alphabet.symbols.length == 0)
+        {
+            throw new IllegalArgumentException("Corpus must not be empty");
+        }
+        int[] symbols = Arrays.copyOf(alphabet.symbols, n);
+        long[] weights = Arrays.copyOf(alphabet.weights, n);
+        if(escape)
+        {
+            symbols[n - 1] = CodeTable.ESCAPE;
+            weights[n - 1] = 1;
         }
         
+        //only the code lengths from the trie are kept; the codewords themselves
+        //are reassigned canonically so the lengths alone can describe them
+        int[] lengths = trieCodeLengths(weights);
+        int longest = 0;
+        for(int length : lengths)
+        {
+            longest = Math.max(longest, length);
+        }
         
-        this.trieRoot = simplifyQueue(pq).poll();
+        //deeper than the cap allows: redo the lengths with package-merge
+        if(longest > maxCodeLength)
+        {
+            lengths = PackageMerge.codeLengths(weights, maxCodeLength);
+        }
         
-        this.encodingMap = createEncodingMap(this.trieRoot, "");
+        return new CodeTable(symbols, lengths);
         
     }
     
+    
     /**
-     * A recusrive function which will depth-first iterate through the tree until
-     *  it reaches a leaf, when it will add
-     * @param root
-     * @param pathToRoot
-     * @return
+     * Builds the huffman tree for the given frequencies in linear time (after
+     * sorting) with the two-queue method: since parents are created in order
+     * of increasing frequency, a plain array works as their priority queue.
+     * The tree is never made of objects, only a parent index per node, and
+     * since every parent comes after its children, one backwards pass gives
+     * every node its depth: no recursion, however deep the tree.
+     * @param weights the frequency of each symbol, all > 0, in symbol order
+     *        (which breaks ties between equal frequencies)
+     * @return the code length (leaf depth) of each symbol, in the same order
      */
-    private TreeMap<Character, String> createEncodingMap(HuffNode root, String pathToRoot)
+    private static int[] trieCodeLengths(long[] weights)
     {
+        int n = weights.length;
+        int[] lengths = new int[n];
+        if(n == 1)
+        {
+            lengths[0] = 1; //a lone character still needs a 1-bit codeword, otherwise nothing gets written
+            return lengths;
+        }
         
-        if(root.left == null && root.right == null)         //beautiful leaf, add to encoding (base case)
+        //sort by frequency, then symbol order, by packing both into a long
+        int shift = 32 - Integer.numberOfLeadingZeros(n - 1);
+        long[] sorted = new long[n];
+        for(int i = 0; i < n; i++)
         {
-            TreeMap<Character, String> tmp = new TreeMap<Character, String>();
-            tmp.put(root.character, pathToRoot);
-            return tmp; //java yelled at me for putting this in one line, so temp variable!
+            if(weights[i] >>> (63 - shift) != 0)
+            {
+                throw new IllegalArgumentException("Frequency too large: " + weights[i]);
+            }
+            sorted[i] = (weights[i] << shift) | i;
         }
+        Arrays.sort(sorted);
         
-        else if(root.left == null || root.right == null)    //only one child, error (won't happen in my code, gods be good)
+        //nodes 0..n-1 are the sorted leaves, n..2n-2 the parents in creation order
+        long[] count = new long[2 * n - 1];
+        int[] parent = new int[2 * n - 1];
+        for(int i = 0; i < n; i++)
+        {
+            count[i] = sorted[i] >>> shift;
+        }
+        int nextLeaf = 0, nextParent = n;
+        for(int node = n; node < 2 * n - 1; node++)
         {
-            throw new IllegalArgumentException("One child to parent in Trie");
+            //dq min val twice, leaves winning ties
+            for(int child = 0; child < 2; child++)
+            {
+                int min;
+                if(nextParent == node || (nextLeaf < n && count[nextLeaf] <= count[nextParent]))
+                {
+                    min = nextLeaf++;
+                }
+                else
+                {
+                    min = nextParent++;
+                }
+                count[node] += count[min];
+                parent[min] = node;
+            }
         }
         
-        else                                                //inner node, recurse!
+        //root is whatever is left (the last parent), at depth 0
+        int[] depth = new int[2 * n - 1];
+        for(int node = 2 * n - 3; node >= 0; node--)
+        {
+            depth[node] = depth[parent[node]] + 1;
+        }
+        for(int i = 0; i < n; i++)
         {
-            TreeMap<Character, String> tmp = new TreeMap<Character, String>();
-            tmp.putAll(createEncodingMap(root.left, pathToRoot+"0"));   //go left, add 0 to encoding
-            tmp.putAll(createEncodingMap(root.right, pathToRoot+"1"));  //go right, add 1 to encoding
-            return tmp; //it is recursive after all
+            lengths[(int) (sorted[i] & ((1L << shift) - 1))] = depth[i];
         }
+        return lengths;
     }
     
     /**
-     * Takes a priority queue and creates a huffman tree by connecting each node 
-     *  until only one remains, then returns that
-     * @param pq the priority queue of nodes with no simplification (so just char and freq)
-     * @return a priorityqueue holding the root node
+     * Counts how often each character appears in the corpus into a flat array
+     * (no boxing, no tree). Large corpi are split up and counted on the common
+     * ForkJoinPool, each piece into its own array, and then summed.
+     * @param corpus a given text (see Huffman docs for Forney's better version)
+     * @return the frequency of each character, indexed by character
      */
-    private PriorityQueue<HuffNode> simplifyQueue(PriorityQueue<HuffNode> pq)
+    static long[] countFrequencies(String corpus)
     {
-      //By assumption (thanks Forney!) this loop will execute ONCE at minimum
-        //since |corpus| > 1 in specifications
-        HuffNode left, right, parent; //loop variables, could declare inside by I'm a C-Programmer at heart
-        while(pq.size() > 1)
+        if(corpus.length() < PARALLEL_COUNT_THRESHOLD)
         {
-            left  = pq.poll();  //dq min val
-            right = pq.poll();  //dq min val
-            
-            parent = new HuffNode('\0', (int)left.count + (int)right.count);
-            parent.left = left;
-            parent.right = right;
-            
-            pq.add(parent);
+            long[] histogram = new long[Character.MAX_VALUE + 1];
+            for(int i = 0; i < corpus.length(); i++)
+            {
+                histogram[corpus.charAt(i)]++;
+            }
+            return histogram;
         }
-        //pq will not be less than 0 since the smallest size in loop can be is 2
-        //  and if size is 2, it will create 1 parent then exit the loop, soooo
-        //root is left!
-        return pq;
+        return ForkJoinPool.commonPool().invoke(new CountFrequencies(corpus, 0, corpus.length()));
     }
     
     /**
-     * Takes corpus and returns a tree map based on frequency of ASCII values 
-     *  within corpus
-     * @param corpus a given text (see Huffman docs for Forney's better version)
-     * @return {@code Treemap} holding the characters present and their frequency
+     * Counts how often each byte value appears in the remaining bytes of the
+     * buffer, without moving its position
+     * @param corpus buffer of bytes (heap or direct)
+     * @return the frequency of each byte value, indexed by value
      */
-    private TreeMap<Character, Integer> constructFrequencyMap(String corpus)
+    static long[] countFrequencies(ByteBuffer corpus)
     {
-        /*
-         * Psuedo-code (left for readability)
-         * 1. Create treemap
-         * 2. Go through each part of string
-         * 3. For each character, either add it to tree or increment by one
-         * 4. Done
-         */
+        long[] histogram = new long[256];
+        for(int i = corpus.position(); i < corpus.limit(); i++)
+        {
+            histogram[corpus.get(i) & 0xFF]++;
+        }
+        return histogram;
+    }
+    
+    /**
+     * Counts characters [from, to) of a corpus, splitting the range in half
+     * until it is small enough to count directly
+     */
+    private static class CountFrequencies extends RecursiveTask<long[]> {
         
-        //Init variables
-        //Forney said to use a TreeMap for consistency :)
-        TreeMap<Character, Integer> charFreqMap = new TreeMap<Character, Integer>(); //holds character and frequency
-        char[] corpusAsArray = corpus.toCharArray(); //Holds corpus in array so I can use for-each
-                                                     // could also do for(i < corpus.length())
+        private static final long serialVersionUID = 1L;
         
-        for(char i : corpusAsArray)
-        {
-            if(charFreqMap.containsKey(i))  //Already placed in map, increment freq by 1
+        private final String corpus;
+        private final int from, to;
+        
+        CountFrequencies (String corpus, int from, int to) {
+            this.corpus = corpus;
+            this.from = from;
+            this.to = to;
+        }
+        
+        @Override
+        protected long[] compute () {
+            long[] histogram = new long[Character.MAX_VALUE + 1];
+            if(to - from > PARALLEL_COUNT_THRESHOLD)
+            {
+                int middle = (from + to) >>> 1;
+                CountFrequencies right = new CountFrequencies(corpus, middle, to);
+                right.fork();
+                long[] left = new CountFrequencies(corpus, from, middle).compute();
+                long[] rightCounts = right.join();
+                for(int c = 0; c < histogram.length; c++)
+                {
+                    histogram[c] = left[c] + rightCounts[c];
+                }
+                return histogram;
+            }
+            
+            //int counts for the hot loop, a piece is never near 2^31 characters
+            int[] counts = new int[Character.MAX_VALUE + 1];
+            for(int i = from; i < to; i++)
             {
-                charFreqMap.put(i, charFreqMap.get(i) + 1); //increment by 1
+                counts[corpus.charAt(i)]++;
             }
-            else
+            for(int c = 0; c < counts.length; c++)
             {
-                charFreqMap.put(i, 1); //first time character found, place a 1 there
+                histogram[c] = counts[c];
             }
+            return histogram;
         }
         
-        return charFreqMap;
-        
     }
     
     
@@ -165,13 +475,15 @@ public class Huffman {
     
     /**
      * Compresses the given String message / text corpus into its Huffman coded
-     * bitstring, as represented by an array of bytes. Uses the encodingMap
-     * field generated during construction for this purpose.
+     * bitstring, as represented by an array of bytes. Uses the codeTable
+     * field (per-character codeword and length arrays) generated during
+     * construction for this purpose.
      * @param message String representing the corpus to compress.
      * @return {@code byte[]} representing the compressed corpus with the
      *         Huffman coded bytecode. Formatted as 3 components: (1) the
-     *         first byte contains the number of characters in the message,
-     *         (2) the bitstring containing the message itself, (3) possible
+     *         number of characters in the message as a varint (just the
+     *         first byte for messages under 128 characters), (2) the
+     *         bitstring containing the message itself, (3) possible
      *         0-padding on the final byte.
      */
     public byte[] compress (String message) {
@@ -185,161 +497,1459 @@ public class Huffman {
         
         
         //add length to beginning (took me an hour to remember this, grrr)
-        mutableAnswer.write(message.length());
+        //as a varint, so anything under 128 characters still costs one byte
+        Varint.write(mutableAnswer, message.length());
         
-        //iterate through each character, append its string to a 'encoded' string
+        encodeMessage(message, mutableAnswer);
         
-        char[] messageAsArray = message.toCharArray();  //making iterating easier
-        String encodedMessage = new String();           //cumulative message
+        answer = mutableAnswer.toByteArray();
         
-        for(char i : messageAsArray)
+        return answer;
+       
+    }
+    
+    /**
+     * Compresses the given String message like {@link #compress}, but makes
+     * the result self-describing: instead of relying on the receiver to have
+     * built the same Huffman instance from the same corpus, the compressed
+     * bytes lead with the (canonical) code length of every character, which
+     * is all {@link #decompressCanonical} needs to rebuild the code.
+     * @param message String representing the corpus to compress.
+     * @return {@code byte[]} formatted as 3 components: (1) the code length
+     *         header, (2) the number of characters in the message as a varint,
+     *         (3) the Huffman coded bitstring, 0-padded to a whole byte.
+     */
+    public byte[] compressCanonical (String message) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        this.codeTable.writeHeader(out);
+        Varint.write(out, message.length());
+        encodeMessage(message, out);
+        return out.toByteArray();
+    }
+    
+    /**
+     * Appends the Huffman coded bitstring for the given message to the output
+     * @param message String to encode
+     * @param out stream receiving the bitstring, 0-padded to a whole byte
+     */
+    private void encodeMessage(String message, ByteArrayOutputStream out)
+    {
+        //each character is one array lookup and a shift into the writer's
+        //64-bit accumulator, no per-character Strings
+        long start = System.nanoTime();
+        BitWriter bits = new BitWriter(message.length() / 2 + 8);
+        for(int i = 0; i < message.length(); i++)
         {
-            
-            encodedMessage += this.encodingMap.get(i);
-            
+            this.codeTable.encode(message.charAt(i), bits);
         }
+        long codeBits = bits.bitPosition();
+        bits.flush();
+        out.write(bits.buffer().array(), 0, bits.buffer().position());
+        this.metrics.encoded(message.length(), codeBits, System.nanoTime() - start);
+    }
+    
+    // -----------------------------------------------
+    // Decompression
+    // -----------------------------------------------
+    
+    /**
+     * Decompresses the given compressed array of bytes into their original,
+     * String representation. Uses the decodeTable field (the Huffman Trie
+     * flattened into lookup tables) that generated the compressed message
+     * during decoding, so that several bits are decoded per lookup.
+     * @param compressedMsg {@code byte[]} representing the compressed corpus
+     *        with the Huffman coded bytecode. Formatted as 3 components: (1)
+     *        the number of characters in the message as a varint (just the
+     *        first byte for messages under 128 characters), (2) the
+     *        bitstring containing the message itself, (3) possible
+     *        0-padding on the final byte.
+     * @return Decompressed String representation of the compressed bytecode message.
+     * @throws IllegalArgumentException if the message is truncated
+     */
+    public String decompress (byte[] compressedMsg) {
         
-        //append encoding to end
-        
-            byte[] temp = stringToByteArray(encodedMessage);
-            
-            for(byte b : temp)
-            {
-                mutableAnswer.write(b);
-            }
+        //first, find length of message
+        ByteBuffer header = ByteBuffer.wrap(compressedMsg);
+        int length_of_msg = Varint.readCount(header);
         
-        answer = mutableAnswer.toByteArray();
+        return decodeMessage(compressedMsg, header.position(), length_of_msg);
         
-        return answer;
-       
     }
     
-    private byte[] stringToByteArray(String encodedMsg)
-    {        
+    /**
+     * Decompresses a message produced by {@link #compressCanonical}. No
+     * Huffman instance (and so no corpus) is needed: the code is rebuilt
+     * from the code length header at the front of the message.
+     * @param compressedMsg {@code byte[]} as returned by compressCanonical
+     * @return Decompressed String representation of the compressed message.
+     * @throws IllegalArgumentException if the header is malformed
+     */
+    public static String decompressCanonical (byte[] compressedMsg) {
+        ByteBuffer header = ByteBuffer.wrap(compressedMsg);
+        Huffman huffman = new Huffman(CodeTable.readHeader(header));
+        int length = Varint.readCount(header);
+        return huffman.decodeMessage(compressedMsg, header.position(), length);
+    }
+    
+    /**
+     * Decodes length characters from the bitstring starting at the given byte
+     * @param compressedMsg bytes holding the bitstring
+     * @param offset index of the bitstring's first byte
+     * @param length number of characters to decode
+     * @return the decoded characters
+     */
+    private String decodeMessage (byte[] compressedMsg, int offset, int length) {
         
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        int conversionHelper;
+        //output goes straight into a buffer of the right size, no String building
+        long start = System.nanoTime();
+        char[] uncompressedMsg = new char[length];
+        BitReader in = new BitReader(ByteBuffer.wrap(compressedMsg), offset, compressedMsg.length);
         
-        //add left padding since << is annoying as heck
-        while(encodedMsg.length()%8 != 0)
+        for(int n = 0; n < length; n++)
         {
-            encodedMsg = encodedMsg+"0";
+            uncompressedMsg[n] = (char) this.decodeTable.decodeSymbol(in);
         }
-        
-        for(int i = 0; i <encodedMsg.length(); i+=8)
+        if(in.overrun())
         {
-            conversionHelper = Integer.parseInt(encodedMsg.substring(i, i+8),2);
-            baos.write(conversionHelper);
+            throw new IllegalArgumentException("Truncated message");
         }
         
-        return baos.toByteArray();
+        this.metrics.decoded(length, in.bitPosition(), System.nanoTime() - start);
+        return new String(uncompressedMsg);
         
     }
     
+    
     // -----------------------------------------------
-    // Decompression
+    // Metrics
     // -----------------------------------------------
     
     /**
-     * Decompresses the given compressed array of bytes into their original,
-     * String representation. Uses the trieRoot field (the Huffman Trie) that
-     * generated the compressed message during decoding.
-     * @param compressedMsg {@code byte[]} representing the compressed corpus with the
-     *        Huffman coded bytecode. Formatted as 3 components: (1) the
-     *        first byte contains the number of characters in the message,
-     *        (2) the bitstring containing the message itself, (3) possible
-     *        0-padding on the final byte.
-     * @return Decompressed String representation of the compressed bytecode message.
+     * @param metrics receiver for measurements of every compression and
+     *        decompression done through the returned instance
+     * @return an instance with the same code as this one (sharing its
+     *         tables) that reports to the given metrics
      */
-    public String decompress (byte[] compressedMsg) {
-        
-        //Loop variables
-        HuffNode current; //Holds the current node being analyzed
-        String uncompressedMsg = new String(); //resulting string
-        
-        //first, find length of message
-        int length_of_msg = (int)compressedMsg[0];
-              
-        current = this.trieRoot;
-        for(int n = 1*8 ; n < (compressedMsg.length * 8) ; n++)
+    public Huffman withMetrics (HuffmanMetrics metrics) {
+        return new Huffman(this.codeTable, this.decodeTable, this.entropy, this.expectedBits, metrics);
+    }
+    
+    /**
+     * @return the number of characters with each code length: element i
+     *         counts the codewords i bits long (a code length histogram)
+     */
+    public int[] codeLengthCounts () {
+        int[] counts = new int[this.codeTable.maxLength + 1];
+        for(byte length : this.codeTable.lengths)
         {
-            
-            
-            if(uncompressedMsg.length() >= length_of_msg)
-            {
-                return uncompressedMsg;
-            }
-            
-            if(current.left == null && current.right == null)
-            {
-                uncompressedMsg += current.character;
-                current = this.trieRoot;
-            }
-            
-            if(getBit(compressedMsg, n) == 1)
-            {
-                current = current.right;
-            }
-            else
+            counts[length]++;
+        }
+        return counts;
+    }
+    
+    /**
+     * @return the longest codeword, in bits
+     */
+    public int maxCodeLength () {
+        return this.codeTable.maxLength;
+    }
+    
+    /**
+     * @return the entropy of the training corpus in bits per character, the
+     *         floor for any code built from it (NaN if this instance was
+     *         built from a bare code, as {@link #decompressCanonical} does)
+     */
+    public double entropy () {
+        return this.entropy;
+    }
+    
+    /**
+     * @return the average code length over the training corpus in bits per
+     *         character (NaN if unknown, see {@link #entropy}). Messages
+     *         that cost clearly more than this per character, according to
+     *         the metrics, no longer look like the corpus: time to retrain.
+     */
+    public double expectedBitsPerCharacter () {
+        return this.expectedBits;
+    }
+    
+    private static double entropy (long[] histogram) {
+        long total = 0;
+        for(long count : histogram)
+        {
+            total += count;
+        }
+        double bits = 0;
+        for(long count : histogram)
+        {
+            if(count > 0)
             {
-                current = current.left;
+                double p = (double) count / total;
+                bits -= p * Math.log(p);
             }
-            
         }
-        
-        return uncompressedMsg;
-        
+        return bits / Math.log(2);
+    }
+    
+    private static double expectedBits (CodeTable code, Alphabet alphabet) {
+        long total = 0, bits = 0;
+        for(int i = 0; i < alphabet.symbols.length; i++)
+        {
+            total += alphabet.weights[i];
+            bits += alphabet.weights[i] * code.length(alphabet.symbols[i]);
+        }
+        return (double) bits / total;
     }
     
     
+    // -----------------------------------------------
+    // Reusable Encoders / Decoders
+    // -----------------------------------------------
+    
+    /**
+     * @return a new encoder for this instance's code, for callers that
+     *         compress many messages on one thread and want to supply their
+     *         own output buffers instead of getting a new array every time
+     */
+    public HuffmanEncoder newEncoder () {
+        return new HuffmanEncoder(this.codeTable, this.metrics);
+    }
+    
     /**
-     * Takes a byte array and returns a single bit as position
-     * @param data the byte array contianing all data
-     * @param pos the desired bit within the overall binary number
-     * @return the bit as an integer 0 or 1
+     * @return a new decoder for this instance's code, for callers that
+     *         decompress many messages on one thread and want to supply their
+     *         own output buffers instead of getting a new String every time
      */
-    private int getBit(byte[] data, int n) {
-        //I'll be honest, this is some whack frankenstein code 
-        // 1/2 is from stack overflow
-        // 1/2 is from geeksforgeeks
-        // byte[] is just weird :////
-        int currentBytePos = n/8;
-        int currentBitPos= n%8;
-        byte currentByte = data[currentBytePos];
-        int asInt = currentByte>>(8-(currentBitPos+1)) & 0x0001;
-        return asInt;
-     }
-
+    public HuffmanDecoder newDecoder () {
+        return new HuffmanDecoder(this.decodeTable, this.metrics);
+    }
+    
     
     // -----------------------------------------------
-    // Huffman Trie
+    // Binary Data
     // -----------------------------------------------
     
     /**
-     * Huffman Trie Node class used in construction of the Huffman Trie.
-     * Each node is a binary (having at most a left and right child), contains
-     * a character field that it represents (in the case of a leaf, otherwise
-     * the null character \0), and a count field that holds the number of times
-     * the node's character (or those in its subtrees, in the case of inner 
-     * nodes) appear in the corpus.
+     * Compresses the remaining bytes of src into dst, straight from buffer to
+     * buffer (heap or direct) with no String or char[] in between. Each byte
+     * is encoded as the character with the same value.
+     * @param src bytes to compress; its position is advanced to its limit
+     * @param dst buffer receiving the compressed bytes, formatted like
+     *        {@link #compress(String)}: (1) the number of bytes as a varint,
+     *        (2) the 0-padded bitstring; its position is advanced past them
+     * @return number of bytes written to dst
+     * @throws BufferOverflowException if dst is too small
+     * @throws IllegalArgumentException if a byte's character is not in the
+     *         encoding map
      */
-    private static class HuffNode implements Comparable<HuffNode> {
-        
-        HuffNode left, right;
-        char character;
-        int count;
-        
-        HuffNode (char character, int count) {
-            this.count = count;
-            this.character = character;
-        }
-        
-        public boolean isLeaf () {
-            return left == null && right == null;
+    public int compress (ByteBuffer src, ByteBuffer dst) {
+        return newEncoder().encode(src, dst);
+    }
+    
+    /**
+     * Decompresses one message written by {@link #compress(ByteBuffer, ByteBuffer)}
+     * (or {@link #compress(byte[])}) from src into dst
+     * @param src buffer positioned at the compressed message; its position is
+     *        advanced past the message (to the end of its final byte)
+     * @param dst buffer receiving the decompressed bytes; its position is
+     *        advanced past them
+     * @return number of bytes written to dst
+     * @throws BufferOverflowException if dst is too small
+     */
+    public int decompress (ByteBuffer src, ByteBuffer dst) {
+        return newDecoder().decode(src, dst);
+    }
+    
+    /**
+     * Compresses the given bytes; see {@link #compress(ByteBuffer, ByteBuffer)}
+     * @param message bytes to compress
+     * @return {@code byte[]} holding the compressed message
+     */
+    public byte[] compress (byte[] message) {
+        long start = System.nanoTime();
+        BitWriter bits = new BitWriter(message.length / 2 + 8);
+        for(byte b : message)
+        {
+            this.codeTable.encode(b & 0xFF, bits);
         }
-        
-        public int compareTo (HuffNode other) {
-            return this.count - other.count;
+        long codeBits = bits.bitPosition();
+        bits.flush();
+        this.metrics.encoded(message.length, codeBits, System.nanoTime() - start);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(bits.buffer().position() + 5);
+        Varint.write(out, message.length);
+        out.write(bits.buffer().array(), 0, bits.buffer().position());
+        return out.toByteArray();
+    }
+    
+    /**
+     * Decompresses bytes written by {@link #compress(byte[])}
+     * @param compressedMsg {@code byte[]} holding the compressed message
+     * @return the decompressed bytes
+     */
+    public byte[] decompressBytes (byte[] compressedMsg) {
+        ByteBuffer src = ByteBuffer.wrap(compressedMsg);
+        int length = Varint.readCount(src);
+        src.position(0);
+        byte[] uncompressedMsg = new byte[length];
+        decompress(src, ByteBuffer.wrap(uncompressedMsg));
+        return uncompressedMsg;
+    }
+    
+    
+    // -----------------------------------------------
+    // Code Points and Int Symbols
+    // -----------------------------------------------
+    
+    /**
+     * Compresses a message of int symbols, for models built with
+     * {@link #Huffman(int[])}
+     * @param message symbols to compress
+     * @return {@code byte[]} formatted like {@link #compress(String)}:
+     *         (1) the number of symbols as a varint, (2) the 0-padded bitstring
+     * @throws IllegalArgumentException if a symbol is not in the encoding map
+     *         (and, with an escape code, is not a valid code point)
+     */
+    public byte[] compress (int[] message) {
+        long start = System.nanoTime();
+        BitWriter bits = new BitWriter(message.length / 2 + 8);
+        for(int symbol : message)
+        {
+            this.codeTable.encode(symbol, bits);
+        }
+        long codeBits = bits.bitPosition();
+        bits.flush();
+        this.metrics.encoded(message.length, codeBits, System.nanoTime() - start);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(bits.buffer().position() + 5);
+        Varint.write(out, message.length);
+        out.write(bits.buffer().array(), 0, bits.buffer().position());
+        return out.toByteArray();
+    }
+    
+    /**
+     * Decompresses symbols written by {@link #compress(int[])}
+     * @param compressedMsg {@code byte[]} holding the compressed message
+     * @return the decompressed symbols
+     * @throws IllegalArgumentException if the message is truncated
+     */
+    public int[] decompressSymbols (byte[] compressedMsg) {
+        long start = System.nanoTime();
+        ByteBuffer header = ByteBuffer.wrap(compressedMsg);
+        int length = Varint.readCount(header);
+        int[] uncompressedMsg = new int[length];
+        BitReader bits = new BitReader(header, header.position(), compressedMsg.length);
+        for(int i = 0; i < length; i++)
+        {
+            uncompressedMsg[i] = this.decodeTable.decodeSymbol(bits);
+        }
+        if(bits.overrun())
+        {
+            throw new IllegalArgumentException("Truncated message");
+        }
+        this.metrics.decoded(length, bits.bitPosition(), System.nanoTime() - start);
+        return uncompressedMsg;
+    }
+    
+    /**
+     * Compresses the given String message one code point at a time, so that
+     * a supplementary character (an emoji, a rare CJK ideograph) is a single
+     * symbol of a model built with {@link #Huffman(int[])} from
+     * {@code corpus.codePoints().toArray()}, rather than two surrogates
+     * @param message String to compress
+     * @return {@code byte[]} formatted like {@link #compress(String)}, but
+     *         counting code points instead of chars
+     * @throws IllegalArgumentException if a code point is not in the encoding map
+     */
+    public byte[] compressCodePoints (String message) {
+        long start = System.nanoTime();
+        BitWriter bits = new BitWriter(message.length() / 2 + 8);
+        int count = 0;
+        for(int i = 0; i < message.length(); count++)
+        {
+            int codePoint = message.codePointAt(i);
+            this.codeTable.encode(codePoint, bits);
+            i += Character.charCount(codePoint);
+        }
+        long codeBits = bits.bitPosition();
+        bits.flush();
+        this.metrics.encoded(count, codeBits, System.nanoTime() - start);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(bits.buffer().position() + 5);
+        Varint.write(out, count);
+        out.write(bits.buffer().array(), 0, bits.buffer().position());
+        return out.toByteArray();
+    }
+    
+    /**
+     * Decompresses a message written by {@link #compressCodePoints(String)}
+     * @param compressedMsg {@code byte[]} holding the compressed message
+     * @return Decompressed String representation of the compressed message.
+     * @throws IllegalArgumentException if the message is truncated
+     */
+    public String decompressCodePoints (byte[] compressedMsg) {
+        long start = System.nanoTime();
+        ByteBuffer header = ByteBuffer.wrap(compressedMsg);
+        int length = Varint.readCount(header);
+        StringBuilder uncompressedMsg = new StringBuilder(length);
+        BitReader bits = new BitReader(header, header.position(), compressedMsg.length);
+        for(int i = 0; i < length; i++)
+        {
+            uncompressedMsg.appendCodePoint(this.decodeTable.decodeSymbol(bits));
+        }
+        if(bits.overrun())
+        {
+            throw new IllegalArgumentException("Truncated message");
+        }
+        this.metrics.decoded(length, bits.bitPosition(), System.nanoTime() - start);
+        return uncompressedMsg.toString();
+    }
+    
+    
+    // -----------------------------------------------
+    // Streaming
+    // -----------------------------------------------
+    
+    /**
+     * Compresses everything readable from the given stream into the output
+     * stream, holding at most one block of input (and its bitstring) in
+     * memory at a time. Each byte of input is encoded as the character with
+     * the same value (as in ISO-8859-1), so the corpus should be text in the
+     * same encoding as the stream.
+     * @param in stream of bytes to compress, read until its end
+     * @param out stream receiving the compressed container (see
+     *        {@link BlockFormat}), with blocks of up to STREAM_BLOCK_SIZE bytes
+     * @throws IOException if reading or writing fails
+     * @throws IllegalArgumentException if a byte's character is not in the
+     *         encoding map
+     */
+    public void compress (InputStream in, OutputStream out) throws IOException {
+        
+        //full blocks go straight from this buffer to the encoder, no copying
+        HuffmanOutputStream huffman = new HuffmanOutputStream(out, this);
+        byte[] block = new byte[STREAM_BLOCK_SIZE];
+        
+        int blockLength;
+        while((blockLength = readBlock(in, block)) > 0)
+        {
+            huffman.write(block, 0, blockLength);
+        }
+        
+        huffman.finish();
+        
+    }
+    
+    /**
+     * Decompresses a stream written by {@link #compress(InputStream, OutputStream)}
+     * one block at a time
+     * @param in stream holding the compressed container, read through its end
+     * @param out stream receiving the decompressed bytes
+     * @throws IOException if reading or writing fails, or the stream is malformed
+     */
+    public void decompress (InputStream in, OutputStream out) throws IOException {
+        
+        //blocks that fit are decoded straight into this buffer, no copying
+        HuffmanInputStream huffman = new HuffmanInputStream(in, this);
+        byte[] block = new byte[STREAM_BLOCK_SIZE];
+        
+        int blockLength;
+        while((blockLength = huffman.read(block)) != -1)
+        {
+            out.write(block, 0, blockLength);
+        }
+        
+        out.flush();
+        
+    }
+    
+    /**
+     * Compresses the given String message into the block container format
+     * used by the streaming methods (see {@link BlockFormat}). Unlike
+     * {@link #compress(String)}, the result is versioned and checksummed,
+     * for messages that are stored or sent somewhere they could be damaged.
+     * @param message String representing the corpus to compress.
+     * @return {@code byte[]} holding the container
+     */
+    public byte[] compressFramed (String message) {
+        
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BitWriter bits = new BitWriter(Math.min(message.length(), STREAM_BLOCK_SIZE));
+        
+        try {
+            BlockFormat.Writer blocks = new BlockFormat.Writer(out);
+            for(int from = 0; from < message.length(); from += STREAM_BLOCK_SIZE)
+            {
+                int to = Math.min(message.length(), from + STREAM_BLOCK_SIZE);
+                long start = System.nanoTime();
+                bits.reset();
+                for(int i = from; i < to; i++)
+                {
+                    this.codeTable.encode(message.charAt(i), bits);
+                }
+                long codeBits = bits.bitPosition();
+                bits.flush();
+                this.metrics.encoded(to - from, codeBits, System.nanoTime() - start);
+                blocks.write(to - from, bits.buffer());
+            }
+            blocks.finish();
+        }
+        catch(IOException e) {
+            throw new UncheckedIOException(e); //ByteArrayOutputStreams don't throw
+        }
+        
+        return out.toByteArray();
+        
+    }
+    
+    /**
+     * Decompresses a message written by {@link #compressFramed}
+     * @param compressedMsg {@code byte[]} holding the container
+     * @return Decompressed String representation of the compressed message.
+     * @throws IllegalArgumentException if the container is malformed or
+     *         fails its checksum
+     */
+    public String decompressFramed (byte[] compressedMsg) {
+        
+        StringBuilder uncompressedMsg = new StringBuilder();
+        BitReader bits = new BitReader(ByteBuffer.wrap(compressedMsg), 0, 0);
+        
+        try {
+            BlockFormat.Reader blocks = new BlockFormat.Reader(new ByteArrayInputStream(compressedMsg));
+            int blockLength;
+            while((blockLength = blocks.next()) != 0)
+            {
+                long start = System.nanoTime();
+                bits.reset(ByteBuffer.wrap(blocks.encoded()), 0, blocks.length());
+                for(int i = 0; i < blockLength; i++)
+                {
+                    uncompressedMsg.append((char) this.decodeTable.decodeSymbol(bits));
+                }
+                this.metrics.decoded(blockLength, bits.bitPosition(), System.nanoTime() - start);
+            }
+        }
+        catch(IOException e) {
+            throw new IllegalArgumentException("Malformed container", e);
+        }
+        
+        return uncompressedMsg.toString();
+        
+    }
+    
+    /**
+     * Channel flavor of {@link #compress(InputStream, OutputStream)}
+     * @param in channel of bytes to compress, read until its end
+     * @param out channel receiving the compressed blocks
+     * @throws IOException if reading or writing fails
+     */
+    public void compress (ReadableByteChannel in, WritableByteChannel out) throws IOException {
+        compress(Channels.newInputStream(in), Channels.newOutputStream(out));
+    }
+    
+    /**
+     * Channel flavor of {@link #decompress(InputStream, OutputStream)}
+     * @param in channel of compressed blocks
+     * @param out channel receiving the decompressed bytes
+     * @throws IOException if reading or writing fails, or the stream is malformed
+     */
+    public void decompress (ReadableByteChannel in, WritableByteChannel out) throws IOException {
+        //buffered, since decompress writes a block at a time anyway
+        OutputStream bytes = new BufferedOutputStream(Channels.newOutputStream(out), STREAM_BLOCK_SIZE);
+        decompress(Channels.newInputStream(in), bytes);
+    }
+    
+    /**
+     * Encodes bytes [from, to) of the block as one bitstring
+     * @param block bytes to encode
+     * @param from index of the first byte
+     * @param to index one past the last byte
+     * @param bits writer that owns its buffer, reset to receive the bitstring
+     */
+    void encodeBlock (byte[] block, int from, int to, BitWriter bits) {
+        long start = System.nanoTime();
+        bits.reset();
+        for(int i = from; i < to; i++)
+        {
+            this.codeTable.encode(block[i] & 0xFF, bits);
+        }
+        long codeBits = bits.bitPosition();
+        bits.flush();
+        this.metrics.encoded(to - from, codeBits, System.nanoTime() - start);
+    }
+    
+    /**
+     * Decodes one bitstring of bytes
+     * @param bits reader reset to the start of the bitstring
+     * @param block array receiving the bytes
+     * @param offset index in block of the first byte to write
+     * @param count number of bytes to decode
+     */
+    void decodeBlock (BitReader bits, byte[] block, int offset, int count) {
+        long start = System.nanoTime();
+        for(int i = offset; i < offset + count; i++)
+        {
+            block[i] = (byte) this.decodeTable.decodeSymbol(bits);
+        }
+        this.metrics.decoded(count, bits.bitPosition(), System.nanoTime() - start);
+    }
+    
+    /**
+     * Reads from the stream until the block is full or the stream ends
+     * @return number of bytes read, 0 only at the end of the stream
+     */
+    private static int readBlock (InputStream in, byte[] block) throws IOException {
+        int total = 0;
+        int read;
+        while(total < block.length && (read = in.read(block, total, block.length - total)) != -1)
+        {
+            total += read;
+        }
+        return total;
+    }
+    
+    
+    // -----------------------------------------------
+    // Memory-Mapped Files
+    // -----------------------------------------------
+    
+    /**
+     * Compresses the source file into the target file (created or replaced),
+     * reading the source through memory-mapped windows instead of the heap,
+     * so files larger than the heap work and the OS page cache does the I/O.
+     * The target holds the same container as {@link #compress(InputStream, OutputStream)}.
+     * @param source file of bytes to compress
+     * @param target file receiving the compressed container
+     * @throws IOException if reading or writing fails
+     * @throws IllegalArgumentException if a byte's character is not in the
+     *         encoding map
+     */
+    public void compressFile (Path source, Path target) throws IOException {
+        
+        try(FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+            FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+        {
+            BitWriter bits = new BitWriter(STREAM_BLOCK_SIZE);
+            BlockFormat.Writer blocks = new BlockFormat.Writer(
+                    new BufferedOutputStream(Channels.newOutputStream(out), STREAM_BLOCK_SIZE));
+            
+            //windows are a whole number of blocks, so no block straddles two
+            long size = in.size();
+            for(long windowStart = 0; windowStart < size; windowStart += MAP_WINDOW_SIZE)
+            {
+                MappedByteBuffer window = in.map(FileChannel.MapMode.READ_ONLY, windowStart,
+                        Math.min(MAP_WINDOW_SIZE, size - windowStart));
+                for(int from = 0; from < window.limit(); from += STREAM_BLOCK_SIZE)
+                {
+                    int to = Math.min(window.limit(), from + STREAM_BLOCK_SIZE);
+                    long start = System.nanoTime();
+                    bits.reset();
+                    for(int i = from; i < to; i++)
+                    {
+                        this.codeTable.encode(window.get(i) & 0xFF, bits);
+                    }
+                    long codeBits = bits.bitPosition();
+                    bits.flush();
+                    this.metrics.encoded(to - from, codeBits, System.nanoTime() - start);
+                    blocks.write(to - from, bits.buffer());
+                }
+            }
+            
+            blocks.finish();
+        }
+        
+    }
+    
+    /**
+     * Decompresses a file written by {@link #compressFile} (or by the
+     * streaming methods) into the target file (created or replaced), reading
+     * the compressed file through memory-mapped windows
+     * @param source file holding the compressed container
+     * @param target file receiving the decompressed bytes
+     * @throws IOException if reading or writing fails, or the file is malformed
+     */
+    public void decompressFile (Path source, Path target) throws IOException {
+        
+        try(FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+            FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+        {
+            long size = in.size();
+            long windowStart = 0;
+            MappedByteBuffer window = in.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(MAP_WINDOW_SIZE, size));
+            if(window.remaining() < 2 || window.get() != BlockFormat.MAGIC || window.get() != BlockFormat.VERSION)
+            {
+                throw new IOException("Not a Huffman container, or an unsupported version");
+            }
+            
+            byte[] block = new byte[STREAM_BLOCK_SIZE];
+            BitReader bits = new BitReader(window, 0, 0);
+            
+            while(true)
+            {
+                //slide the window up whenever a block header might run off its end
+                if(window.remaining() < BLOCK_HEADER_ROOM && windowStart + window.limit() < size)
+                {
+                    windowStart += window.position();
+                    window = in.map(FileChannel.MapMode.READ_ONLY, windowStart, Math.min(MAP_WINDOW_SIZE, size - windowStart));
+                }
+                
+                long blockLength, encodedLength;
+                try {
+                    blockLength = Varint.read(window);
+                    if(blockLength == 0)
+                    {
+                        break;
+                    }
+                    encodedLength = Varint.read(window);
+                }
+                catch(IllegalArgumentException e) {
+                    throw new IOException("Truncated block header", e);
+                }
+                if(blockLength > MAX_BLOCK_SIZE || encodedLength > BlockFormat.maxEncodedLength(blockLength))
+                {
+                    throw new IOException("Malformed block header");
+                }
+                
+                //...and whenever the block itself would
+                if(window.remaining() < encodedLength + 4)
+                {
+                    windowStart += window.position();
+                    window = in.map(FileChannel.MapMode.READ_ONLY, windowStart, Math.min(MAP_WINDOW_SIZE, size - windowStart));
+                    if(window.remaining() < encodedLength + 4)
+                    {
+                        throw new IOException("Truncated block");
+                    }
+                }
+                
+                int start = window.position();
+                int end = start + (int) encodedLength;
+                if(BlockFormat.checksum(window, start, end) != window.getInt(end))
+                {
+                    throw new IOException("Block checksum mismatch");
+                }
+                
+                if(blockLength > block.length)
+                {
+                    block = new byte[(int) blockLength];
+                }
+                long began = System.nanoTime();
+                bits.reset(window, start, end);
+                for(int i = 0; i < blockLength; i++)
+                {
+                    block[i] = (byte) this.decodeTable.decodeSymbol(bits);
+                }
+                this.metrics.decoded(blockLength, bits.bitPosition(), System.nanoTime() - began);
+                ByteBuffer decoded = ByteBuffer.wrap(block, 0, (int) blockLength);
+                while(decoded.hasRemaining())
+                {
+                    out.write(decoded);
+                }
+                window.position(end + 4);
+            }
+        }
+        
+    }
+    
+    
+    // -----------------------------------------------
+    // Model Files
+    // -----------------------------------------------
+    
+    /**
+     * Saves this instance's code to a model file, so that a later process can
+     * {@link #load} it instead of recounting the training corpus. The file
+     * holds: (1) the magic bytes 'H' 'M' and the format version, (2) the
+     * model's {@link #entropy} and {@link #expectedBitsPerCharacter} as
+     * 8-byte big-endian doubles, (3) the code length header written by
+     * {@link #compressCanonical}, (4) the CRC32 of (2) and (3) as a 4-byte
+     * big-endian int.
+     * @param target file receiving the model (created or replaced)
+     * @throws IOException if writing fails
+     */
+    public void save (Path target) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(BlockFormat.MAGIC);
+        out.write(MODEL_MAGIC);
+        out.write(MODEL_VERSION);
+        out.write(ByteBuffer.allocate(16).putDouble(this.entropy).putDouble(this.expectedBits).array());
+        this.codeTable.writeHeader(out);
+        byte[] model = out.toByteArray();
+        int checksum = BlockFormat.checksum(ByteBuffer.wrap(model), MODEL_PREFIX, model.length);
+        out.write(checksum >>> 24);
+        out.write(checksum >>> 16);
+        out.write(checksum >>> 8);
+        out.write(checksum);
+        Files.write(target, out.toByteArray());
+    }
+    
+    /**
+     * Loads a model file written by {@link #save}. The file is memory-mapped
+     * and only its statistics and code lengths are read, so loading costs
+     * about as much as building the decoding tables.
+     * @param source the model file
+     * @return a Huffman instance with the saved code
+     * @throws IOException if reading fails, or the file is not a valid model
+     */
+    public static Huffman load (Path source) throws IOException {
+        
+        try(FileChannel in = FileChannel.open(source, StandardOpenOption.READ))
+        {
+            if(in.size() < MODEL_PREFIX + 16 + 4 || in.size() > Integer.MAX_VALUE)
+            {
+                throw new IOException("Not a Huffman model file: " + source);
+            }
+            MappedByteBuffer model = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+            if(model.get() != BlockFormat.MAGIC || model.get() != MODEL_MAGIC)
+            {
+                throw new IOException("Not a Huffman model file: " + source);
+            }
+            int version = model.get();
+            if(version != MODEL_VERSION)
+            {
+                throw new IOException("Unsupported model version: " + version);
+            }
+            
+            int end = model.limit() - 4;
+            if(BlockFormat.checksum(model, MODEL_PREFIX, end) != model.getInt(end))
+            {
+                throw new IOException("Model checksum mismatch: " + source);
+            }
+            model.limit(end);
+            double entropy = model.getDouble();
+            double expectedBits = model.getDouble();
+            try
+            {
+                CodeTable code = CodeTable.readHeader(model);
+                return new Huffman(code, new DecodeTable(code), entropy, expectedBits, HuffmanMetrics.NONE);
+            }
+            catch(IllegalArgumentException | BufferUnderflowException e)
+            {
+                throw new IOException("Malformed model file: " + source, e);
+            }
+        }
+        
+    }
+    
+    
+    // -----------------------------------------------
+    // Block-Parallel
+    // -----------------------------------------------
+    
+    /**
+     * Compresses the given String message in independently decodable blocks,
+     * encoding the blocks in parallel on the common ForkJoinPool
+     * @param message String representing the corpus to compress.
+     * @param blockSize number of characters per block (the last may be shorter)
+     * @return {@code byte[]} formatted as 4 components: (1) the number of
+     *         characters in the message as a varint, (2) the block size as a
+     *         varint, (3) the index: the length in bytes of each block's
+     *         bitstring as a varint, (4) the blocks' 0-padded bitstrings.
+     */
+    public byte[] compressParallel (String message, int blockSize) {
+        
+        if(blockSize < 1 || blockSize > MAX_BLOCK_SIZE)
+        {
+            throw new IllegalArgumentException("Invalid block size: " + blockSize);
+        }
+        
+        int blockCount = (message.length() + blockSize - 1) / blockSize;
+        ByteBuffer[] encoded = new ByteBuffer[blockCount];
+        ForkJoinPool.commonPool().invoke(new EncodeBlocks(message, blockSize, encoded, 0, blockCount));
+        
+        //stitch the header, index and blocks together
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Varint.write(out, message.length());
+        Varint.write(out, blockSize);
+        for(ByteBuffer block : encoded)
+        {
+            Varint.write(out, block.position());
+        }
+        for(ByteBuffer block : encoded)
+        {
+            out.write(block.array(), 0, block.position());
+        }
+        
+        return out.toByteArray();
+        
+    }
+    
+    /**
+     * Compresses the given String message with blocks of PARALLEL_BLOCK_SIZE
+     * characters; see {@link #compressParallel(String, int)}
+     * @param message String representing the corpus to compress.
+     * @return {@code byte[]} holding the blocks and their index
+     */
+    public byte[] compressParallel (String message) {
+        return compressParallel(message, PARALLEL_BLOCK_SIZE);
+    }
+    
+    /**
+     * Decompresses a message written by {@link #compressParallel}, decoding
+     * the blocks in parallel on the common ForkJoinPool
+     * @param compressedMsg {@code byte[]} holding the blocks and their index
+     * @return Decompressed String representation of the compressed message.
+     * @throws IllegalArgumentException if the index is malformed
+     */
+    public String decompressParallel (byte[] compressedMsg) {
+        
+        ByteBuffer header = ByteBuffer.wrap(compressedMsg);
+        int length = Varint.readCount(header);
+        int blockSize = Varint.readInt(header);
+        if(blockSize < 1 || blockSize > MAX_BLOCK_SIZE)
+        {
+            throw new IllegalArgumentException("Invalid block size: " + blockSize);
+        }
+        
+        //turn the index of block lengths into offsets of each block; every
+        //entry takes at least a byte, so a count past that is no index
+        long blocks = ((long) length + blockSize - 1) / blockSize;
+        if(blocks > header.remaining())
+        {
+            throw new IllegalArgumentException("Block index runs past the message");
+        }
+        int blockCount = (int) blocks;
+        int[] offsets = new int[blockCount + 1];
+        long[] lengths = new long[blockCount];
+        for(int i = 0; i < blockCount; i++)
+        {
+            lengths[i] = Varint.read(header);
+            if(lengths[i] < 0)
+            {
+                throw new IllegalArgumentException("Invalid block length: " + lengths[i]);
+            }
+        }
+        long offset = header.position();
+        for(int i = 0; i < blockCount; i++)
+        {
+            offsets[i] = (int) offset;
+            offset += lengths[i];
+            if(offset > compressedMsg.length)
+            {
+                throw new IllegalArgumentException("Block index runs past the message");
+            }
+        }
+        offsets[blockCount] = (int) offset;
+        
+        char[] uncompressedMsg = new char[length];
+        ForkJoinPool.commonPool().invoke(new DecodeBlocks(compressedMsg, offsets, blockSize, uncompressedMsg, 0, blockCount));
+        return new String(uncompressedMsg);
+        
+    }
+    
+    /**
+     * Encodes blocks [from, to) of a message, splitting the range in half
+     * until only one block is left
+     */
+    private class EncodeBlocks extends RecursiveAction {
+        
+        private static final long serialVersionUID = 1L;
+        
+        private final String message;
+        private final int blockSize;
+        private final ByteBuffer[] encoded;
+        private final int from, to;
+        
+        EncodeBlocks (String message, int blockSize, ByteBuffer[] encoded, int from, int to) {
+            this.message = message;
+            this.blockSize = blockSize;
+            this.encoded = encoded;
+            this.from = from;
+            this.to = to;
+        }
+        
+        @Override
+        protected void compute () {
+            if(to - from > 1)
+            {
+                int middle = (from + to) >>> 1;
+                invokeAll(new EncodeBlocks(message, blockSize, encoded, from, middle),
+                          new EncodeBlocks(message, blockSize, encoded, middle, to));
+                return;
+            }
+            if(to == from)
+            {
+                return; //empty message, no blocks at all
+            }
+            
+            long began = System.nanoTime();
+            int start = from * blockSize;
+            int end = Math.min(message.length(), start + blockSize);
+            BitWriter bits = new BitWriter((end - start) / 2);
+            for(int i = start; i < end; i++)
+            {
+                codeTable.encode(message.charAt(i), bits);
+            }
+            long codeBits = bits.bitPosition();
+            bits.flush();
+            encoded[from] = bits.buffer();
+            metrics.encoded(end - start, codeBits, System.nanoTime() - began);
+        }
+        
+    }
+    
+    /**
+     * Decodes blocks [from, to) of a message into their slots of the output,
+     * splitting the range in half until only one block is left
+     */
+    private class DecodeBlocks extends RecursiveAction {
+        
+        private static final long serialVersionUID = 1L;
+        
+        private final byte[] compressedMsg;
+        private final int[] offsets;
+        private final int blockSize;
+        private final char[] uncompressedMsg;
+        private final int from, to;
+        
+        DecodeBlocks (byte[] compressedMsg, int[] offsets, int blockSize, char[] uncompressedMsg, int from, int to) {
+            this.compressedMsg = compressedMsg;
+            this.offsets = offsets;
+            this.blockSize = blockSize;
+            this.uncompressedMsg = uncompressedMsg;
+            this.from = from;
+            this.to = to;
+        }
+        
+        @Override
+        protected void compute () {
+            if(to - from > 1)
+            {
+                int middle = (from + to) >>> 1;
+                invokeAll(new DecodeBlocks(compressedMsg, offsets, blockSize, uncompressedMsg, from, middle),
+                          new DecodeBlocks(compressedMsg, offsets, blockSize, uncompressedMsg, middle, to));
+                return;
+            }
+            if(to == from)
+            {
+                return; //empty message, no blocks at all
+            }
+            
+            long began = System.nanoTime();
+            BitReader bits = new BitReader(ByteBuffer.wrap(compressedMsg), offsets[from], offsets[from + 1]);
+            int start = from * blockSize;
+            int end = Math.min(uncompressedMsg.length, start + blockSize);
+            for(int i = start; i < end; i++)
+            {
+                uncompressedMsg[i] = (char) decodeTable.decodeSymbol(bits);
+            }
+            metrics.decoded(end - start, bits.bitPosition(), System.nanoTime() - began);
+        }
+        
+    }
+    
+    
+    // -----------------------------------------------
+    // Interleaved Streams
+    // -----------------------------------------------
+    
+    /**
+     * Compresses the given String message as several interleaved sub-streams
+     * (as in Zstd's Huff0): the message is cut into equal consecutive
+     * segments, each coded into its own bitstring, so that a single thread
+     * can decode all of them in lockstep. A single bitstring can't be decoded
+     * faster than one codeword after another, since where each codeword
+     * starts depends on the length of the one before it; independent streams
+     * let the CPU overlap their decodes.
+     * @param message String representing the corpus to compress.
+     * @param streams number of sub-streams, 1..MAX_INTERLEAVED_STREAMS
+     * @return {@code byte[]} formatted as 4 components: (1) the number of
+     *         characters in the message as a varint, (2) the number of
+     *         sub-streams as a varint, (3) the length in bytes of every
+     *         sub-stream but the last as a varint, (4) the sub-streams'
+     *         0-padded bitstrings.
+     */
+    public byte[] compressInterleaved (String message, int streams) {
+        
+        if(streams < 1 || streams > MAX_INTERLEAVED_STREAMS)
+        {
+            throw new IllegalArgumentException("Invalid stream count: " + streams);
+        }
+        
+        long began = System.nanoTime();
+        int segment = (message.length() + streams - 1) / streams;
+        BitWriter[] encoded = new BitWriter[streams];
+        long codeBits = 0;
+        for(int k = 0; k < streams; k++)
+        {
+            int start = Math.min(message.length(), k * segment);
+            int end = Math.min(message.length(), start + segment);
+            encoded[k] = new BitWriter((end - start) / 2 + 8);
+            for(int i = start; i < end; i++)
+            {
+                this.codeTable.encode(message.charAt(i), encoded[k]);
+            }
+            codeBits += encoded[k].bitPosition();
+            encoded[k].flush();
+        }
+        this.metrics.encoded(message.length(), codeBits, System.nanoTime() - began);
+        
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Varint.write(out, message.length());
+        Varint.write(out, streams);
+        for(int k = 0; k < streams - 1; k++)
+        {
+            Varint.write(out, encoded[k].buffer().position());
+        }
+        for(BitWriter stream : encoded)
+        {
+            out.write(stream.buffer().array(), 0, stream.buffer().position());
+        }
+        
+        return out.toByteArray();
+        
+    }
+    
+    /**
+     * Compresses the given String message as INTERLEAVED_STREAMS sub-streams;
+     * see {@link #compressInterleaved(String, int)}
+     * @param message String representing the corpus to compress.
+     * @return {@code byte[]} holding the sub-streams and their lengths
+     */
+    public byte[] compressInterleaved (String message) {
+        return compressInterleaved(message, INTERLEAVED_STREAMS);
+    }
+    
+    /**
+     * Decompresses a message written by {@link #compressInterleaved}, decoding
+     * one character from each sub-stream in turn
+     * @param compressedMsg {@code byte[]} holding the sub-streams and their lengths
+     * @return Decompressed String representation of the compressed message.
+     * @throws IllegalArgumentException if the stream lengths are malformed
+     */
+    public String decompressInterleaved (byte[] compressedMsg) {
+        
+        ByteBuffer header = ByteBuffer.wrap(compressedMsg);
+        int length = Varint.readCount(header);
+        int streams = Varint.readInt(header);
+        if(streams < 1 || streams > MAX_INTERLEAVED_STREAMS)
+        {
+            throw new IllegalArgumentException("Invalid stream count: " + streams);
+        }
+        
+        //every segment is full length but the last few, which may come up short
+        int segment = (int) (((long) length + streams - 1) / streams);
+        int[] segmentLengths = new int[streams];
+        long[] byteLengths = new long[streams];
+        for(int k = 0; k < streams; k++)
+        {
+            segmentLengths[k] = (int) Math.max(0, Math.min(segment, length - (long) k * segment));
+            if(k < streams - 1)
+            {
+                byteLengths[k] = Varint.read(header);
+            }
+        }
+        
+        int[] starts = new int[streams];
+        int[] ends = new int[streams];
+        long offset = header.position();
+        for(int k = 0; k < streams; k++)
+        {
+            long end = k < streams - 1 ? offset + byteLengths[k] : compressedMsg.length;
+            if(end > compressedMsg.length)
+            {
+                throw new IllegalArgumentException("Stream lengths run past the message");
+            }
+            starts[k] = (int) offset;
+            ends[k] = (int) end;
+            offset = end;
+        }
+        
+        //lockstep, four streams at a time, for as long as all four have a
+        //character left: the decodes of one round don't depend on each other
+        long began = System.nanoTime();
+        char[] uncompressedMsg = new char[length];
+        long[] positions = new long[streams];
+        int[] decoded = new int[streams];
+        BitReader bits = new BitReader(header, 0, 0);
+        for(int k = 0; k + 4 <= streams; k += 4)
+        {
+            int[] groupStarts = Arrays.copyOfRange(starts, k, k + 4);
+            int[] groupEnds = Arrays.copyOfRange(ends, k, k + 4);
+            long[] groupPositions = new long[4];
+            int rounds = segmentLengths[k + 3];
+            int done = 0;
+            while(done < rounds)
+            {
+                done += this.decodeTable.decode4(header, groupStarts, groupEnds, groupPositions, uncompressedMsg, k * segment + done, segment, rounds - done);
+                if(done < rounds)
+                {
+                    //an escape, or a stream near its end: one round the slow way
+                    for(int j = 0; j < 4; j++)
+                    {
+                        groupPositions[j] = decodeAt(bits, header, groupStarts[j], groupEnds[j], groupPositions[j], uncompressedMsg, (k + j) * segment + done);
+                    }
+                    done++;
+                }
+            }
+            for(int j = 0; j < 4; j++)
+            {
+                positions[k + j] = groupPositions[j];
+                decoded[k + j] = rounds;
+            }
+        }
+        
+        //whatever is left: the longer segments' last characters, and streams
+        //beyond the last group of four
+        for(int k = 0; k < streams; k++)
+        {
+            if(decoded[k] == segmentLengths[k])
+            {
+                continue;
+            }
+            bits.reset(header, starts[k] + (int) (positions[k] >>> 3), ends[k]);
+            if((positions[k] & 7) != 0)
+            {
+                bits.read((int) (positions[k] & 7));
+            }
+            for(int i = decoded[k], at = k * segment + i; i < segmentLengths[k]; i++, at++)
+            {
+                uncompressedMsg[at] = (char) this.decodeTable.decodeSymbol(bits);
+            }
+            if(bits.overrun())
+            {
+                throw new IllegalArgumentException("Truncated message");
+            }
+            positions[k] = (positions[k] & ~7L) + bits.bitPosition();
+        }
+        long codeBits = 0;
+        for(long position : positions)
+        {
+            codeBits += position;
+        }
+        this.metrics.decoded(length, codeBits, System.nanoTime() - began);
+        return new String(uncompressedMsg);
+        
+    }
+    
+    /**
+     * Decodes one character of an interleaved sub-stream through a reader
+     * @param bits reader to reposition
+     * @param buf buffer holding the sub-stream
+     * @param start index of the sub-stream's first byte
+     * @param end index one past its last byte
+     * @param position bit position of the character in the sub-stream
+     * @param dst array receiving the character
+     * @param at index in dst of the character
+     * @return bit position of the next character
+     */
+    private long decodeAt (BitReader bits, ByteBuffer buf, int start, int end, long position, char[] dst, int at) {
+        int from = start + (int) (position >>> 3);
+        bits.reset(buf, from, end);
+        if((position & 7) != 0)
+        {
+            bits.read((int) (position & 7));
+        }
+        dst[at] = (char) this.decodeTable.decodeSymbol(bits);
+        if(bits.overrun())
+        {
+            throw new IllegalArgumentException("Truncated message");
+        }
+        return (position & ~7L) + bits.bitPosition();
+    }
+    
+    
+    // -----------------------------------------------
+    // Random Access
+    // -----------------------------------------------
+    
+    /**
+     * Compresses the given String message with a sync point index, so that
+     * any range of it can be decompressed without decoding everything before
+     * it (see {@link #decompress(byte[], int, int)}). A sync point is the bit
+     * offset at which a character whose index is a multiple of the interval
+     * starts; since they are evenly spaced, the character count of each is
+     * implied by its position in the index, and the index is a flat array of
+     * fixed-width offsets that can be jumped into directly.
+     * @param message String representing the corpus to compress.
+     * @param interval number of characters between sync points, at least 1
+     * @return {@code byte[]} formatted as 4 components: (1) the number of
+     *         characters in the message as a varint, (2) the interval as a
+     *         varint, (3) the bit offset into the bitstring of each sync point
+     *         past the first character, as 8-byte big-endian longs, (4) the
+     *         0-padded bitstring.
+     */
+    public byte[] compressIndexed (String message, int interval) {
+        
+        if(interval < 1)
+        {
+            throw new IllegalArgumentException("Invalid sync interval: " + interval);
+        }
+        
+        long began = System.nanoTime();
+        int length = message.length();
+        long[] syncPoints = new long[length == 0 ? 0 : (length - 1) / interval];
+        BitWriter bits = new BitWriter(length / 2 + 8);
+        for(int i = 0; i < length; i++)
+        {
+            if(i % interval == 0 && i > 0)
+            {
+                syncPoints[i / interval - 1] = bits.bitPosition();
+            }
+            this.codeTable.encode(message.charAt(i), bits);
+        }
+        long codeBits = bits.bitPosition();
+        bits.flush();
+        this.metrics.encoded(length, codeBits, System.nanoTime() - began);
+        
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        Varint.write(header, length);
+        Varint.write(header, interval);
+        ByteBuffer out = ByteBuffer.allocate(header.size() + syncPoints.length * 8 + bits.buffer().position());
+        out.put(header.toByteArray());
+        for(long syncPoint : syncPoints)
+        {
+            out.putLong(syncPoint);
+        }
+        out.put(bits.buffer().array(), 0, bits.buffer().position());
+        return out.array();
+        
+    }
+    
+    /**
+     * Compresses the given String message with a sync point every
+     * SYNC_INTERVAL characters; see {@link #compressIndexed(String, int)}
+     * @param message String representing the corpus to compress.
+     * @return {@code byte[]} holding the index and the bitstring
+     */
+    public byte[] compressIndexed (String message) {
+        return compressIndexed(message, SYNC_INTERVAL);
+    }
+    
+    /**
+     * Decompresses a whole message written by {@link #compressIndexed}
+     * @param compressedMsg {@code byte[]} holding the compressed message
+     * @return Decompressed String representation of the compressed message.
+     */
+    public String decompressIndexed (byte[] compressedMsg) {
+        ByteBuffer header = ByteBuffer.wrap(compressedMsg);
+        return decompress(compressedMsg, 0, Varint.readCount(header));
+    }
+    
+    /**
+     * Decompresses characters from..to of a message written by
+     * {@link #compressIndexed}, starting at the last sync point at or before
+     * from, so that the cost is proportional to the length of the range
+     * (plus at most one interval) rather than to the length of the message
+     * @param compressedMsg {@code byte[]} holding the compressed message
+     * @param from index of the first character to decompress
+     * @param to index one past the last character to decompress
+     * @return the characters from..to of the original message
+     * @throws IndexOutOfBoundsException if the range is not within the message
+     */
+    public String decompress (byte[] compressedMsg, int from, int to) {
+        
+        long began = System.nanoTime();
+        ByteBuffer header = ByteBuffer.wrap(compressedMsg);
+        int length = Varint.readCount(header);
+        int interval = Varint.readInt(header);
+        if(from < 0 || to > length || from > to)
+        {
+            throw new IndexOutOfBoundsException("Range " + from + ".." + to + " of " + length + " characters");
+        }
+        if(interval < 1)
+        {
+            throw new IllegalArgumentException("Invalid sync interval: " + interval);
+        }
+        int index = header.position();
+        int syncPoints = length == 0 ? 0 : (length - 1) / interval;
+        int start = index + syncPoints * 8;
+        
+        //jump to the sync point, then decode (and drop) up to the range
+        int syncPoint = Math.min(from / interval, syncPoints);
+        long bit = syncPoint == 0 ? 0 : header.getLong(index + (syncPoint - 1) * 8);
+        BitReader bits = new BitReader(header, start + (int) (bit >>> 3), compressedMsg.length);
+        if((bit & 7) != 0)
+        {
+            bits.read((int) (bit & 7));
+        }
+        for(int i = syncPoint * interval; i < from; i++)
+        {
+            this.decodeTable.decodeSymbol(bits);
+        }
+        
+        char[] uncompressedMsg = new char[to - from];
+        for(int i = 0; i < uncompressedMsg.length; i++)
+        {
+            uncompressedMsg[i] = (char) this.decodeTable.decodeSymbol(bits);
+        }
+        this.metrics.decoded(to - from, bits.bitPosition(), System.nanoTime() - began);
+        return new String(uncompressedMsg);
+        
+    }
+    
+    
+    // -----------------------------------------------
+    // Alphabet
+    // -----------------------------------------------
+    
+    /**
+     * The distinct symbols of a corpus in increasing order, and how often
+     * each appears
+     */
+    private static final class Alphabet {
+        
+        final int[] symbols;
+        final long[] weights;
+        
+        private Alphabet (int[] symbols, long[] weights) {
+            this.symbols = symbols;
+            this.weights = weights;
+        }
+        
+        /**
+         * @param histogram the frequency of each character, indexed by character
+         */
+        static Alphabet of (long[] histogram) {
+            int n = 0;
+            for(long count : histogram)
+            {
+                if(count > 0)
+                {
+                    n++;
+                }
+            }
+            int[] symbols = new int[n];
+            long[] weights = new long[n];
+            for(int c = 0, i = 0; c < histogram.length; c++)
+            {
+                if(histogram[c] > 0)
+                {
+                    symbols[i] = c;
+                    weights[i++] = histogram[c];
+                }
+            }
+            return new Alphabet(symbols, weights);
+        }
+        
+        /**
+         * Counts a corpus of arbitrary symbols by sorting a copy of it, so
+         * nothing is ever sized by the largest symbol
+         * @param corpus symbols, each 0..Character.MAX_CODE_POINT
+         */
+        static Alphabet of (int[] corpus) {
+            int[] sorted = corpus.clone();
+            Arrays.sort(sorted);
+            if(sorted.length > 0 && (sorted[0] < 0 || sorted[sorted.length - 1] > Character.MAX_CODE_POINT))
+            {
+                throw new IllegalArgumentException("Symbol out of range: "
+                        + (sorted[0] < 0 ? sorted[0] : sorted[sorted.length - 1]));
+            }
+            int n = 0;
+            for(int i = 0; i < sorted.length; i++)
+            {
+                if(i == 0 || sorted[i] != sorted[i - 1])
+                {
+                    n++;
+                }
+            }
+            int[] symbols = new int[n];
+            long[] weights = new long[n];
+            for(int i = 0, k = -1; i < sorted.length; i++)
+            {
+                if(i == 0 || sorted[i] != sorted[i - 1])
+                {
+                    symbols[++k] = sorted[i];
+                }
+                weights[k]++;
+            }
+            return new Alphabet(symbols, weights);
         }
         
     }
@@ -0,0 +1,107 @@
+package huffman;
+
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * A reusable decoder for one Huffman instance's code that writes into
+ * caller-supplied buffers. Once warmed up (i.e. after the first call with a
+ * given source array) decoding allocates nothing. Decoders are cheap to
+ * create but not thread-safe: give each thread its own, from
+ * {@link Huffman#newDecoder()}.
+ */
+public final class HuffmanDecoder {
+    
+    private final DecodeTable table;
+    private final HuffmanMetrics metrics;
+    private final BitReader bits;
+    private byte[] lastArray;       // the array lastBuffer wraps, so repeat
+    private ByteBuffer lastBuffer;  // calls with it don't wrap it again
+    
+    HuffmanDecoder (DecodeTable table, HuffmanMetrics metrics) {
+        this.table = table;
+        this.metrics = metrics;
+        this.bits = new BitReader(ByteBuffer.allocate(0), 0, 0);
+    }
+    
+    /**
+     * @param src array holding a message written by {@link Huffman#compress(String)}
+     *        (or {@link HuffmanEncoder#encode(CharSequence, byte[], int)})
+     * @param offset index in src of the message's first byte
+     * @return the number of characters in the message, for sizing dst
+     */
+    public int decodedLength (byte[] src, int offset) {
+        ByteBuffer in = wrap(src);
+        in.limit(src.length).position(offset);
+        return Varint.readCount(in);
+    }
+    
+    /**
+     * Decodes one message from the source array into the destination array
+     * @param src array holding a message written by {@link Huffman#compress(String)}
+     *        (or {@link HuffmanEncoder#encode(CharSequence, byte[], int)})
+     * @param offset index in src of the message's first byte
+     * @param length number of bytes of src, from offset, that belong to the message
+     * @param dst array receiving the characters
+     * @param dstOffset index in dst of the first character to write
+     * @return number of characters written
+     * @throws BufferOverflowException if dst is too small
+     */
+    public int decode (byte[] src, int offset, int length, char[] dst, int dstOffset) {
+        long start = System.nanoTime();
+        ByteBuffer in = wrap(src);
+        in.limit(offset + length).position(offset);
+        int count = Varint.readInt(in);
+        if (count > dst.length - dstOffset) {
+            throw new BufferOverflowException();
+        }
+        bits.reset(in, in.position(), offset + length);
+        for (int i = 0; i < count; i++) {
+            dst[dstOffset + i] = (char) table.decodeSymbol(bits);
+        }
+        metrics.decoded(count, bits.bitPosition(), System.nanoTime() - start);
+        return count;
+    }
+    
+    /**
+     * Decodes one message from src into dst, in the format of
+     * {@link Huffman#decompress(ByteBuffer, ByteBuffer)}
+     * @param src buffer positioned at the encoded message; its position is
+     *        advanced past the message (to the end of its final byte)
+     * @param dst buffer receiving the bytes; its position is advanced past them
+     * @return number of bytes written
+     * @throws BufferOverflowException if dst is too small
+     * @throws BufferUnderflowException if the message runs past src's limit
+     *         (src's position is then left where it was)
+     */
+    public int decode (ByteBuffer src, ByteBuffer dst) {
+        long start = System.nanoTime();
+        int begin = src.position();
+        int count = Varint.readInt(src);
+        if (count > dst.remaining()) {
+            throw new BufferOverflowException();
+        }
+        bits.reset(src, src.position(), src.limit());
+        for (int i = 0; i < count; i++) {
+            dst.put((byte) table.decodeSymbol(bits));
+        }
+        //past the limit the reader hands out 0-bits, which decode as well
+        if (bits.overrun()) {
+            src.position(begin);
+            throw new BufferUnderflowException();
+        }
+        src.position(src.position() + (int) ((bits.bitPosition() + 7) / 8));
+        metrics.decoded(count, bits.bitPosition(), System.nanoTime() - start);
+        return count;
+    }
+    
+    private ByteBuffer wrap (byte[] array) {
+        if (array != lastArray) {
+            lastArray = array;
+            lastBuffer = ByteBuffer.wrap(array);
+        }
+        return lastBuffer;
+    }
+    
+}
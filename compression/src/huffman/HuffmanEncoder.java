@@ -0,0 +1,98 @@
+package huffman;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * A reusable encoder for one Huffman instance's code that writes into
+ * caller-supplied buffers. Once warmed up (i.e. after the first call with a
+ * given destination array) encoding allocates nothing. Encoders are cheap
+ * to create but not thread-safe: give each thread its own, from
+ * {@link Huffman#newEncoder()}.
+ */
+public final class HuffmanEncoder {
+    
+    private final CodeTable code;
+    private final HuffmanMetrics metrics;
+    private final BitWriter bits;
+    private byte[] lastArray;       // the array lastBuffer wraps, so repeat
+    private ByteBuffer lastBuffer;  // calls with it don't wrap it again
+    
+    HuffmanEncoder (CodeTable code, HuffmanMetrics metrics) {
+        this.code = code;
+        this.metrics = metrics;
+        this.bits = new BitWriter(ByteBuffer.allocate(0));
+    }
+    
+    /**
+     * @param length number of characters (or bytes) in a message
+     * @return the most bytes {@link #encode} can write for such a message,
+     *         for sizing destination buffers
+     */
+    public int maxEncodedLength (int length) {
+        int maxBits = code.maxLength + (code.escapeIndex < 0 ? 0 : CodeTable.LITERAL_BITS);
+        return 5 + (int) (((long) length * maxBits + 7) / 8);
+    }
+    
+    /**
+     * Encodes the message into the destination array, in the format of
+     * {@link Huffman#compress(String)}: the number of characters as a
+     * varint, then the 0-padded bitstring
+     * @param message characters to encode
+     * @param dst array receiving the encoded message
+     * @param offset index in dst of the first byte to write
+     * @return number of bytes written
+     * @throws BufferOverflowException if dst is too small
+     * @throws IllegalArgumentException if a character is not in the encoding map
+     */
+    public int encode (CharSequence message, byte[] dst, int offset) {
+        long start = System.nanoTime();
+        ByteBuffer out = wrap(dst);
+        out.limit(dst.length).position(offset);
+        Varint.write(out, message.length());
+        long from = out.position() * 8L;
+        bits.reset(out);
+        for (int i = 0; i < message.length(); i++) {
+            code.encode(message.charAt(i), bits);
+        }
+        long codeBits = bits.bitPosition() - from;
+        bits.flush();
+        metrics.encoded(message.length(), codeBits, System.nanoTime() - start);
+        return out.position() - offset;
+    }
+    
+    /**
+     * Encodes the remaining bytes of src into dst, in the format of
+     * {@link Huffman#compress(ByteBuffer, ByteBuffer)}
+     * @param src bytes to encode; its position is advanced to its limit
+     * @param dst buffer receiving the encoded message; its position is
+     *        advanced past it
+     * @return number of bytes written
+     * @throws BufferOverflowException if dst is too small
+     * @throws IllegalArgumentException if a byte is not in the encoding map
+     */
+    public int encode (ByteBuffer src, ByteBuffer dst) {
+        long start = System.nanoTime();
+        int offset = dst.position();
+        Varint.write(dst, src.remaining());
+        long from = dst.position() * 8L;
+        bits.reset(dst);
+        for (int i = src.position(); i < src.limit(); i++) {
+            code.encode(src.get(i) & 0xFF, bits);
+        }
+        long codeBits = bits.bitPosition() - from;
+        bits.flush();
+        metrics.encoded(src.remaining(), codeBits, System.nanoTime() - start);
+        src.position(src.limit());
+        return dst.position() - offset;
+    }
+    
+    private ByteBuffer wrap (byte[] array) {
+        if (array != lastArray) {
+            lastArray = array;
+            lastBuffer = ByteBuffer.wrap(array);
+        }
+        return lastBuffer;
+    }
+    
+}
@@ -0,0 +1,131 @@
+package huffman;
+
+import java.io.BufferedInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * An input stream filter that decompresses a container written by
+ * {@link HuffmanOutputStream} (or {@link Huffman#compress(InputStream, OutputStream)}),
+ * like {@link java.util.zip.InflaterInputStream} does with deflate. Blocks
+ * are read, checked and decoded one at a time as they are needed; a read
+ * that asks for at least a whole block is decoded straight into the
+ * caller's array. The underlying stream is read ahead through a buffer, so
+ * it may be consumed past the end of the container.
+ */
+public class HuffmanInputStream extends FilterInputStream {
+    
+    private final Huffman huffman;
+    private final BlockFormat.Reader blocks;
+    private final BitReader bits;
+    private final byte[] single = new byte[1];
+    private byte[] block = new byte[0];
+    private int position, limit;  // unread decoded bytes are block[position, limit)
+    private boolean ended;
+    
+    /**
+     * Starts reading a container
+     * @param in stream positioned at the start of the container
+     * @param huffman the code the container was compressed with
+     * @throws IOException if reading fails, or the stream does not start
+     *         with a container header
+     */
+    public HuffmanInputStream (InputStream in, Huffman huffman) throws IOException {
+        super(new BufferedInputStream(in, Huffman.STREAM_BLOCK_SIZE));
+        this.huffman = huffman;
+        this.blocks = new BlockFormat.Reader(this.in);
+        this.bits = new BitReader(ByteBuffer.wrap(block), 0, 0);
+    }
+    
+    @Override
+    public int read () throws IOException {
+        return read(single, 0, 1) == -1 ? -1 : single[0] & 0xFF;
+    }
+    
+    /**
+     * @throws IOException if reading fails, or a block is corrupt
+     */
+    @Override
+    public int read (byte[] b, int off, int len) throws IOException {
+        if ((off | len) < 0 || len > b.length - off) {
+            throw new IndexOutOfBoundsException();
+        }
+        if (len == 0) {
+            return 0;
+        }
+        if (position == limit) {
+            if (ended) {
+                return -1;
+            }
+            int blockLength = blocks.next();
+            if (blockLength == 0) {
+                ended = true;
+                return -1;
+            }
+            bits.reset(ByteBuffer.wrap(blocks.encoded()), 0, blocks.length());
+            if (len >= blockLength) {
+                huffman.decodeBlock(bits, b, off, blockLength);
+                return blockLength;
+            }
+            //only grow the buffer when a block is bigger than any seen so far
+            if (blockLength > block.length) {
+                block = new byte[blockLength];
+            }
+            huffman.decodeBlock(bits, block, 0, blockLength);
+            position = 0;
+            limit = blockLength;
+        }
+        int n = Math.min(len, limit - position);
+        System.arraycopy(block, position, b, off, n);
+        position += n;
+        return n;
+    }
+    
+    /**
+     * @return the number of decoded bytes that can be read without decoding
+     *         another block
+     */
+    @Override
+    public int available () throws IOException {
+        return limit - position;
+    }
+    
+    /**
+     * Skips decoded bytes, decoding every block it passes
+     */
+    @Override
+    public long skip (long n) throws IOException {
+        long skipped = 0;
+        while (skipped < n) {
+            if (position < limit) {
+                int k = (int) Math.min(n - skipped, limit - position);
+                position += k;
+                skipped += k;
+            }
+            else if (read(single, 0, 1) == -1) {
+                break;
+            }
+            else {
+                skipped++;
+            }
+        }
+        return skipped;
+    }
+    
+    @Override
+    public boolean markSupported () {
+        return false;
+    }
+    
+    @Override
+    public void mark (int readlimit) {
+    }
+    
+    @Override
+    public void reset () throws IOException {
+        throw new IOException("mark/reset not supported");
+    }
+    
+}
@@ -0,0 +1,43 @@
+package huffman;
+
+/**
+ * Receives measurements from a {@link Huffman} instance's compress and
+ * decompress paths, for exporting to JMX (see {@link HuffmanStats}) or to
+ * any other metrics system. Every call reports one message, block or
+ * stream of a message: how many symbols it held, how many bits of code they
+ * took (headers, framing and the padding to a whole byte are not counted,
+ * so bits / symbols is the code's own bits per symbol) and how long the
+ * coding took.
+ * Implementations are called from every thread that uses the instance, in
+ * the middle of coding, so they must be thread-safe and cheap.
+ */
+public interface HuffmanMetrics {
+    
+    /**
+     * Metrics that ignore everything, used until an instance is given others
+     */
+    HuffmanMetrics NONE = new HuffmanMetrics() {
+        @Override
+        public void encoded (long symbols, long bits, long nanos) {}
+        
+        @Override
+        public void decoded (long symbols, long bits, long nanos) {}
+    };
+    
+    /**
+     * Called after symbols were encoded into bits of code
+     * @param symbols number of symbols encoded
+     * @param bits number of bits written for them
+     * @param nanos time spent encoding, in nanoseconds
+     */
+    void encoded (long symbols, long bits, long nanos);
+    
+    /**
+     * Called after symbols were decoded from bits of code
+     * @param symbols number of symbols decoded
+     * @param bits number of bits read for them
+     * @param nanos time spent decoding, in nanoseconds
+     */
+    void decoded (long symbols, long bits, long nanos);
+    
+}
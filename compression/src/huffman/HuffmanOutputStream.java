@@ -0,0 +1,162 @@
+package huffman;
+
+import java.io.BufferedOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * An output stream filter that compresses everything written to it with a
+ * static Huffman code, like {@link java.util.zip.DeflaterOutputStream}
+ * does with deflate. Bytes are gathered into blocks of a fixed size, and
+ * each full block is encoded and written as one block of the container
+ * described by {@link BlockFormat} (the same output as
+ * {@link Huffman#compress(InputStream, OutputStream)}), so at most one block
+ * of input is ever held in memory. Writes of whole blocks are encoded
+ * straight out of the caller's array. Each byte is encoded as the character
+ * with the same value, as in {@link Huffman#Huffman(byte[])}.
+ */
+public class HuffmanOutputStream extends FilterOutputStream {
+    
+    private final Huffman huffman;
+    private final BlockFormat.Writer blocks;
+    private final byte[] block;
+    private final BitWriter bits;
+    private int count;          // bytes waiting in block
+    private boolean finished;
+    private boolean closed;
+    
+    /**
+     * Starts a container with blocks of Huffman.STREAM_BLOCK_SIZE bytes
+     * @param out stream receiving the compressed container
+     * @param huffman the code to compress with
+     * @throws IOException if writing the container header fails
+     */
+    public HuffmanOutputStream (OutputStream out, Huffman huffman) throws IOException {
+        this(out, huffman, Huffman.STREAM_BLOCK_SIZE);
+    }
+    
+    /**
+     * Starts a container with blocks of the given size. Bigger blocks
+     * cost more memory but less framing (8 bytes or so per block); each
+     * block can be decoded (and is checksummed) on its own.
+     * @param out stream receiving the compressed container
+     * @param huffman the code to compress with
+     * @param blockSize bytes of input per block, 1..Huffman.MAX_BLOCK_SIZE
+     * @throws IOException if writing the container header fails
+     */
+    public HuffmanOutputStream (OutputStream out, Huffman huffman, int blockSize) throws IOException {
+        super(new BufferedOutputStream(out, Huffman.STREAM_BLOCK_SIZE));
+        if (blockSize < 1 || blockSize > Huffman.MAX_BLOCK_SIZE) {
+            throw new IllegalArgumentException("Invalid block size: " + blockSize);
+        }
+        this.huffman = huffman;
+        this.block = new byte[blockSize];
+        this.bits = new BitWriter(blockSize);
+        this.blocks = new BlockFormat.Writer(this.out);
+    }
+    
+    /**
+     * @throws IllegalArgumentException if the byte's character is not in
+     *         the encoding map
+     */
+    @Override
+    public void write (int b) throws IOException {
+        ensureOpen();
+        block[count++] = (byte) b;
+        if (count == block.length) {
+            writeBlock(block, 0, count);
+            count = 0;
+        }
+    }
+    
+    /**
+     * @throws IllegalArgumentException if a byte's character is not in the
+     *         encoding map
+     */
+    @Override
+    public void write (byte[] b, int off, int len) throws IOException {
+        ensureOpen();
+        if ((off | len) < 0 || len > b.length - off) {
+            throw new IndexOutOfBoundsException();
+        }
+        while (len > 0) {
+            if (count == 0 && len >= block.length) {
+                writeBlock(b, off, off + block.length);
+                off += block.length;
+                len -= block.length;
+                continue;
+            }
+            int n = Math.min(len, block.length - count);
+            System.arraycopy(b, off, block, count, n);
+            count += n;
+            off += n;
+            len -= n;
+            if (count == block.length) {
+                writeBlock(block, 0, count);
+                count = 0;
+            }
+        }
+    }
+    
+    /**
+     * Writes out the bytes gathered so far as a (short) block and flushes
+     * the underlying stream, so that everything written so far can be
+     * decompressed. Flushing often makes for many small blocks. Once the
+     * container is finished, only the underlying stream is flushed.
+     */
+    @Override
+    public void flush () throws IOException {
+        if (!finished) {
+            writePending();
+        }
+        out.flush();
+    }
+    
+    /**
+     * Writes out the bytes gathered so far and ends the container, without
+     * closing the underlying stream; nothing more can be written afterwards
+     * @throws IOException if writing fails
+     */
+    public void finish () throws IOException {
+        if (!finished) {
+            writePending();
+            blocks.finish();
+            finished = true;
+        }
+    }
+    
+    /**
+     * Ends the container (see {@link #finish}) and closes the underlying stream
+     */
+    @Override
+    public void close () throws IOException {
+        if (!closed) {
+            closed = true;
+            try {
+                finish();
+            } finally {
+                out.close();
+            }
+        }
+    }
+    
+    private void writePending () throws IOException {
+        if (count > 0) {
+            writeBlock(block, 0, count);
+            count = 0;
+        }
+    }
+    
+    private void writeBlock (byte[] b, int from, int to) throws IOException {
+        huffman.encodeBlock(b, from, to, bits);
+        blocks.write(to - from, bits.buffer());
+    }
+    
+    private void ensureOpen () throws IOException {
+        if (finished) {
+            throw new IOException("Stream finished");
+        }
+    }
+    
+}
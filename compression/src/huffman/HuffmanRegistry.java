@@ -0,0 +1,192 @@
+package huffman;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A cache of built Huffman models, keyed by the character frequencies of the
+ * corpus they were trained on. Asking twice for a model of the same corpus
+ * (or of any corpus with exactly the same counts) costs one counting pass
+ * instead of a whole construction, and returns the same shared instance.
+ * The least recently used models are evicted once more than the capacity
+ * are held. Registries are safe to use from any number of threads.
+ */
+public final class HuffmanRegistry {
+
+    private final int capacity;
+    private final Map<Fingerprint, Huffman> models;
+    private long hits, misses;
+
+    /**
+     * Creates an empty registry
+     * @param capacity most models to keep at once, at least 1
+     */
+    public HuffmanRegistry (int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Invalid capacity: " + capacity);
+        }
+        this.capacity = capacity;
+        this.models = new LinkedHashMap<Fingerprint, Huffman>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry (Map.Entry<Fingerprint, Huffman> eldest) {
+                return size() > HuffmanRegistry.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * @param corpus a text corpus, as for {@link Huffman#Huffman(String)}
+     * @return the model for the corpus, built now if it isn't cached
+     */
+    public Huffman forCorpus (String corpus) {
+        return forCorpus(corpus, CodeTable.MAX_CODE_LENGTH);
+    }
+
+    /**
+     * @param corpus a text corpus, as for {@link Huffman#Huffman(String, int)}
+     * @param maxCodeLength the longest codeword allowed, 1..32
+     * @return the model for the corpus, built now if it isn't cached
+     */
+    public Huffman forCorpus (String corpus, int maxCodeLength) {
+        return forCorpus(corpus, maxCodeLength, false);
+    }
+
+    /**
+     * @param corpus a text corpus, as for {@link Huffman#Huffman(String, int, boolean)}
+     * @param maxCodeLength the longest codeword allowed, 1..32
+     * @param escape whether the model has an escape code
+     * @return the model for the corpus, built now if it isn't cached
+     */
+    public Huffman forCorpus (String corpus, int maxCodeLength, boolean escape) {
+        return forHistogram(Huffman.countFrequencies(corpus), maxCodeLength, escape);
+    }
+
+    /**
+     * @param corpus binary data, as for {@link Huffman#Huffman(byte[])}
+     * @return the model for the corpus, built now if it isn't cached
+     */
+    public Huffman forCorpus (byte[] corpus) {
+        return forHistogram(Huffman.countFrequencies(ByteBuffer.wrap(corpus)), CodeTable.MAX_CODE_LENGTH, false);
+    }
+
+    /**
+     * @param histogram the frequency of each character, indexed by character
+     * @param maxCodeLength the longest codeword allowed, 1..32
+     * @param escape whether the model has an escape code
+     * @return the model for the frequencies, built now if it isn't cached
+     */
+    Huffman forHistogram (long[] histogram, int maxCodeLength, boolean escape) {
+        Fingerprint key = new Fingerprint(histogram, maxCodeLength, escape);
+        synchronized (models) {
+            Huffman model = models.get(key);
+            if (model != null) {
+                hits++;
+                return model;
+            }
+            misses++;
+        }
+        //build outside the lock; if another thread raced us, keep its model
+        Huffman built = new Huffman(histogram, maxCodeLength, escape);
+        synchronized (models) {
+            Huffman model = models.putIfAbsent(key, built);
+            return model != null ? model : built;
+        }
+    }
+
+    /**
+     * @return number of models currently cached
+     */
+    public int size () {
+        synchronized (models) {
+            return models.size();
+        }
+    }
+
+    /**
+     * @return number of requests answered from the cache so far
+     */
+    public long hits () {
+        synchronized (models) {
+            return hits;
+        }
+    }
+
+    /**
+     * @return number of requests that had to build a model so far
+     */
+    public long misses () {
+        synchronized (models) {
+            return misses;
+        }
+    }
+
+    /**
+     * Drops every cached model (models already handed out keep working)
+     */
+    public void clear () {
+        synchronized (models) {
+            models.clear();
+        }
+    }
+
+    /**
+     * The nonzero entries of a histogram, plus the code length cap and the
+     * escape flag: two keys are equal exactly when they would build the
+     * same model
+     */
+    private static final class Fingerprint {
+
+        private final int[] symbols;
+        private final long[] counts;
+        private final int maxCodeLength;
+        private final boolean escape;
+        private final int hash;
+
+        Fingerprint (long[] histogram, int maxCodeLength, boolean escape) {
+            int n = 0;
+            for (long count : histogram) {
+                if (count != 0) {
+                    n++;
+                }
+            }
+            this.symbols = new int[n];
+            this.counts = new long[n];
+            this.maxCodeLength = maxCodeLength;
+            this.escape = escape;
+            long h = escape ? ~maxCodeLength : maxCodeLength;
+            for (int c = 0, i = 0; c < histogram.length; c++) {
+                if (histogram[c] != 0) {
+                    symbols[i] = c;
+                    counts[i++] = histogram[c];
+                    h = (h ^ c) * 0x9E3779B97F4A7C15L;
+                    h = (h ^ histogram[c]) * 0x9E3779B97F4A7C15L;
+                }
+            }
+            this.hash = (int) (h ^ (h >>> 32));
+        }
+
+        @Override
+        public int hashCode () {
+            return hash;
+        }
+
+        @Override
+        public boolean equals (Object o) {
+            if (!(o instanceof Fingerprint)) {
+                return false;
+            }
+            Fingerprint other = (Fingerprint) o;
+            return hash == other.hash
+                && maxCodeLength == other.maxCodeLength
+                && escape == other.escape
+                && Arrays.equals(symbols, other.symbols)
+                && Arrays.equals(counts, other.counts);
+        }
+
+    }
+
+}
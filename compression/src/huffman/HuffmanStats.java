@@ -0,0 +1,150 @@
+package huffman;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Metrics that keep running totals in LongAdders (so threads coding at the
+ * same time don't contend on one counter) and publish them through JMX.
+ * Attach with {@link Huffman#withMetrics}. Pooled stats can collect for any
+ * number of Huffman instances; stats created for one model also publish
+ * that model's code length histogram, entropy and expected bits per symbol,
+ * so that achieved and expected bits can be compared over JMX.
+ */
+public class HuffmanStats implements HuffmanMetrics, HuffmanStatsMBean {
+    
+    private final Huffman model;  // the model measured, null for pooled stats
+    private final LongAdder encodedSymbols = new LongAdder();
+    private final LongAdder encodedBits = new LongAdder();
+    private final LongAdder encodeNanos = new LongAdder();
+    private final LongAdder decodedSymbols = new LongAdder();
+    private final LongAdder decodedBits = new LongAdder();
+    private final LongAdder decodeNanos = new LongAdder();
+    
+    /**
+     * Creates pooled stats, for any number of models
+     */
+    public HuffmanStats () {
+        this.model = null;
+    }
+    
+    /**
+     * Creates stats for a single model, to be attached with
+     * {@code model.withMetrics(stats)}
+     * @param model the model measured, whose statistics are published
+     *        alongside the counters
+     */
+    public HuffmanStats (Huffman model) {
+        this.model = model;
+    }
+    
+    @Override
+    public void encoded (long symbols, long bits, long nanos) {
+        encodedSymbols.add(symbols);
+        encodedBits.add(bits);
+        encodeNanos.add(nanos);
+    }
+    
+    @Override
+    public void decoded (long symbols, long bits, long nanos) {
+        decodedSymbols.add(symbols);
+        decodedBits.add(bits);
+        decodeNanos.add(nanos);
+    }
+    
+    /**
+     * Registers these stats with the platform MBeanServer, under
+     * "huffman:type=HuffmanStats,name=" + name
+     * @param name name distinguishing these stats from others
+     * @return the name registered under
+     * @throws JMException if the name is taken or malformed
+     */
+    public ObjectName register (String name) throws JMException {
+        ObjectName objectName = new ObjectName("huffman:type=HuffmanStats,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        return objectName;
+    }
+    
+    @Override
+    public long getEncodedSymbols () {
+        return encodedSymbols.sum();
+    }
+    
+    @Override
+    public long getEncodedBits () {
+        return encodedBits.sum();
+    }
+    
+    @Override
+    public long getEncodeNanos () {
+        return encodeNanos.sum();
+    }
+    
+    @Override
+    public long getDecodedSymbols () {
+        return decodedSymbols.sum();
+    }
+    
+    @Override
+    public long getDecodedBits () {
+        return decodedBits.sum();
+    }
+    
+    @Override
+    public long getDecodeNanos () {
+        return decodeNanos.sum();
+    }
+    
+    @Override
+    public double getBitsPerSymbol () {
+        return (double) encodedBits.sum() / encodedSymbols.sum();
+    }
+    
+    @Override
+    public double getEncodeThroughput () {
+        return encodedSymbols.sum() * 1e9 / encodeNanos.sum();
+    }
+    
+    @Override
+    public double getDecodeThroughput () {
+        return decodedSymbols.sum() * 1e9 / decodeNanos.sum();
+    }
+    
+    @Override
+    public int[] getCodeLengthCounts () {
+        return model == null ? new int[0] : model.codeLengthCounts();
+    }
+    
+    @Override
+    public int getMaxCodeLength () {
+        return model == null ? 0 : model.maxCodeLength();
+    }
+    
+    @Override
+    public double getEntropy () {
+        return model == null ? Double.NaN : model.entropy();
+    }
+    
+    @Override
+    public double getExpectedBitsPerSymbol () {
+        return model == null ? Double.NaN : model.expectedBitsPerCharacter();
+    }
+    
+    @Override
+    public double getExcessBitsPerSymbol () {
+        return getBitsPerSymbol() - getExpectedBitsPerSymbol();
+    }
+    
+    @Override
+    public void reset () {
+        encodedSymbols.reset();
+        encodedBits.reset();
+        encodeNanos.reset();
+        decodedSymbols.reset();
+        decodedBits.reset();
+        decodeNanos.reset();
+    }
+    
+}
@@ -0,0 +1,70 @@
+package huffman;
+
+/**
+ * The JMX view of {@link HuffmanStats}
+ */
+public interface HuffmanStatsMBean {
+    
+    long getEncodedSymbols ();
+    
+    long getEncodedBits ();
+    
+    long getEncodeNanos ();
+    
+    long getDecodedSymbols ();
+    
+    long getDecodedBits ();
+    
+    long getDecodeNanos ();
+    
+    /**
+     * @return average bits per symbol of everything encoded
+     */
+    double getBitsPerSymbol ();
+    
+    /**
+     * @return symbols encoded per second of encoding time
+     */
+    double getEncodeThroughput ();
+    
+    /**
+     * @return symbols decoded per second of decoding time
+     */
+    double getDecodeThroughput ();
+    
+    /**
+     * @return the measured model's code length histogram (see
+     *         {@link Huffman#codeLengthCounts}), empty for pooled stats
+     */
+    int[] getCodeLengthCounts ();
+    
+    /**
+     * @return the measured model's longest codeword, 0 for pooled stats
+     */
+    int getMaxCodeLength ();
+    
+    /**
+     * @return the entropy of the measured model's training corpus (NaN for
+     *         pooled stats, or a model not built from a corpus)
+     */
+    double getEntropy ();
+    
+    /**
+     * @return the measured model's average code length over its training
+     *         corpus (NaN for pooled stats, or a model not built from a corpus)
+     */
+    double getExpectedBitsPerSymbol ();
+    
+    /**
+     * @return achieved bits per symbol beyond those expected: near 0 while
+     *         messages look like the training corpus, growing as the model
+     *         goes stale
+     */
+    double getExcessBitsPerSymbol ();
+    
+    /**
+     * Zeroes every counter
+     */
+    void reset ();
+    
+}
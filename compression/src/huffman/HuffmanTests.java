@@ -3,6 +3,15 @@ package huffman;
 import static org.junit.Assert.*;
 import org.junit.Test;
 
+import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.channels.Channels;
+import java.util.Arrays;
+import java.util.Random;
+
 public class HuffmanTests {
     
     // Compression Tests
@@ -89,6 +98,1047 @@ public class HuffmanTests {
         assertEquals("BABCBC", h.decompress(compressed));
     }
 
+    @Test
+    public void decomp_t5() {
+        // Deep codes (Fibonacci counts) force the decoder past its root table
+        Huffman h = new Huffman(skewedCorpus(16));
+        String message = "ponmlkjihgfedcbaabcdefghijklmnop";
+        assertEquals(message, h.decompress(h.compress(message)));
+    }
+    
+    @Test
+    public void decomp_t6() {
+        // Only one character in the corpus still gets a 1-bit code
+        Huffman h = new Huffman("AAAA");
+        assertEquals("AAA", h.decompress(h.compress("AAA")));
+    }
+    
+    
+    @Test
+    public void decom_t7() {
+        // Lengths past 127 take a second varint byte instead of wrapping
+        Huffman h = new Huffman("ABBBCC");
+        String message = new String(new char[300]).replace('\0', 'B') + "CA";
+        byte[] compressed = h.compress(message);
+        assertEquals(-82, compressed[0]); // 1010 1110: 46 + more to come
+        assertEquals(2, compressed[1]);   // 2 * 128 + 46 = 302
+        assertEquals(message, h.decompress(compressed));
+    }
+    
+    @Test
+    public void decom_t8() {
+        // A length no bitstring could hold is rejected before anything is allocated
+        Huffman h = new Huffman("ABBBCC");
+        byte[] huge = {-1, -1, -1, -1, 7, 0};
+        Runnable[] decoders = {
+            () -> h.decompress(huge),
+            () -> h.decompressSymbols(huge),
+            () -> h.decompressCodePoints(huge),
+            () -> h.decompressInterleaved(huge),
+            () -> h.decompressBytes(huge),
+            () -> AdaptiveHuffman.decompress(huge),
+            () -> new ContextHuffman("ABBBCC").decompress(huge),
+            () -> new WordHuffman("ABBBCC").decompress(huge),
+        };
+        for (Runnable decoder : decoders) {
+            try {
+                decoder.run();
+                fail("huge length accepted");
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+        // ...as is a message cut short
+        byte[] compressed = h.compress("ABBBCCABBBCCABBBCC");
+        for (int length = 1; length < compressed.length; length++) {
+            try {
+                h.decompress(Arrays.copyOf(compressed, length));
+                fail("message truncated to " + length + " bytes decompressed");
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+    }
+    
+    // Construction Tests
+    // -----------------------------------------------
+    @Test
+    public void cons_t0() {
+        // Big enough to be counted in parallel, same distribution as "ABBBCC"
+        String corpus = new String(new char[700000]).replace("\0", "ABBBCC");
+        Huffman big = new Huffman(corpus);
+        Huffman small = new Huffman("ABBBCC");
+        assertArrayEquals(small.compressCanonical("CABBA"),
+                          big.compressCanonical("CABBA"));
+    }
+    
+    @Test(expected=IllegalArgumentException.class)
+    public void cons_t1() {
+        new Huffman("");
+    }
+    
+    @Test
+    public void cons_t2() {
+        // Unlimited, the last two of 16 Fibonacci characters would get 15 bits
+        Huffman h = new Huffman(skewedCorpus(16), 8);
+        String message = "ponmlkjihgfedcbaabcdefghijklmnop";
+        byte[] compressed = h.compressCanonical(message);
+        // header: 16, then (gap, length) for 'a'..'p'
+        assertEquals(16, compressed[0]);
+        for (int i = 0; i < 16; i++) {
+            assertTrue(compressed[2 + 2 * i] <= 8);
+        }
+        assertEquals(message, Huffman.decompressCanonical(compressed));
+        assertEquals(message, h.decompress(h.compress(message)));
+    }
+    
+    @Test
+    public void cons_t3() {
+        // Huffman would give 1, 2, 3, 3; with a cap of 2 everyone gets 2
+        assertArrayEquals(new int[] {2, 2, 2, 2}, PackageMerge.codeLengths(new long[] {4, 2, 1, 1}, 2));
+        // Plenty of room: package-merge agrees with Huffman
+        assertArrayEquals(new int[] {1, 2, 3, 3}, PackageMerge.codeLengths(new long[] {4, 2, 1, 1}, 3));
+        assertArrayEquals(new int[] {3, 3, 2, 1}, PackageMerge.codeLengths(new long[] {1, 1, 2, 4}, 5));
+    }
+    
+    @Test(expected=IllegalArgumentException.class)
+    public void cons_t4() {
+        // 3 characters don't fit in 1-bit codes
+        new Huffman("ABC", 1);
+    }
+    
+    // Canonical Code Tests
+    // -----------------------------------------------
+    @Test
+    public void canon_t0() {
+        Huffman h = new Huffman("ABBBCC");
+        // header: 3 symbols, then (gap, length) per symbol:
+        //   'A' = 65 -> (65, 2), 'B' -> (0, 1), 'C' -> (0, 2)
+        // then message length 6 and the same bitstring as compress
+        byte[] compressed = {3, 65, 2, 0, 1, 0, 2, 6, -121, -128};
+        assertArrayEquals(compressed, h.compressCanonical("ABBBCC"));
+    }
+    
+    @Test
+    public void canon_t1() {
+        // No corpus needed on the decoding side
+        Huffman h = new Huffman(skewedCorpus(20) + "the quick brown fox jumped over the lazy dog");
+        String message = "the quick brown fox jumped over the lazy dog";
+        assertEquals(message, Huffman.decompressCanonical(h.compressCanonical(message)));
+    }
+    
+    @Test(expected=IllegalArgumentException.class)
+    public void canon_t2() {
+        // Three 1-bit codes cannot exist
+        Huffman.decompressCanonical(new byte[] {3, 65, 1, 0, 1, 0, 1, 1, 0});
+    }
+    
+    
+    // Binary Data Tests
+    // -----------------------------------------------
+    @Test
+    public void bytes_t0() {
+        // Same distribution as "ABBBCC", so the same bytes come out
+        Huffman h = new Huffman(new byte[] {'A', 'B', 'B', 'B', 'C', 'C'});
+        byte[] compressed = {6, -121, -128};
+        assertArrayEquals(compressed, h.compress(new byte[] {'A', 'B', 'B', 'B', 'C', 'C'}));
+        assertArrayEquals(new byte[] {'A', 'B', 'B', 'B', 'C', 'C'}, h.decompressBytes(compressed));
+    }
+    
+    @Test
+    public void bytes_t1() {
+        // Every byte value, between direct buffers
+        byte[] corpus = new byte[256 * 3];
+        for (int i = 0; i < corpus.length; i++) {
+            corpus[i] = (byte) (i * i % 251 + i % 5);
+        }
+        Huffman h = new Huffman(corpus);
+        ByteBuffer src = ByteBuffer.allocateDirect(corpus.length);
+        src.put(corpus).flip();
+        ByteBuffer compressed = ByteBuffer.allocateDirect(corpus.length * 2);
+        int written = h.compress(src, compressed);
+        assertEquals(written, compressed.position());
+        assertFalse(src.hasRemaining());
+        compressed.flip();
+        ByteBuffer dst = ByteBuffer.allocateDirect(corpus.length);
+        assertEquals(corpus.length, h.decompress(compressed, dst));
+        assertFalse(compressed.hasRemaining());
+        byte[] decompressed = new byte[corpus.length];
+        dst.flip();
+        dst.get(decompressed);
+        assertArrayEquals(corpus, decompressed);
+    }
+    
+    // Reusable Encoder / Decoder Tests
+    // -----------------------------------------------
+    @Test
+    public void reuse_t0() {
+        // Same bytes as compress(String), written into the caller's array
+        Huffman h = new Huffman("ABBBCC");
+        HuffmanEncoder encoder = h.newEncoder();
+        byte[] dst = new byte[encoder.maxEncodedLength(6) + 3];
+        assertEquals(3, encoder.encode("ABBBCC", dst, 3));
+        assertArrayEquals(h.compress("ABBBCC"), Arrays.copyOfRange(dst, 3, 6));
+    }
+    
+    @Test
+    public void reuse_t1() {
+        // One encoder and decoder, reused across messages and buffers
+        String corpus = "the quick brown fox jumps over the lazy dog";
+        Huffman h = new Huffman(corpus);
+        HuffmanEncoder encoder = h.newEncoder();
+        HuffmanDecoder decoder = h.newDecoder();
+        byte[] dst = new byte[encoder.maxEncodedLength(corpus.length())];
+        char[] chars = new char[corpus.length() + 1];
+        for (int i = 0; i <= corpus.length(); i++) {
+            String message = corpus.substring(i);
+            int written = encoder.encode(message, dst, 0);
+            assertEquals(message.length(), decoder.decodedLength(dst, 0));
+            assertEquals(message.length(), decoder.decode(dst, 0, written, chars, 1));
+            assertEquals(message, new String(chars, 1, message.length()));
+        }
+    }
+    
+    @Test
+    public void reuse_t2() {
+        // A buffer cut short of the message underflows and keeps its position
+        Huffman h = new Huffman("ABBBCC");
+        HuffmanEncoder encoder = h.newEncoder();
+        HuffmanDecoder decoder = h.newDecoder();
+        ByteBuffer src = ByteBuffer.allocate(encoder.maxEncodedLength(12));
+        encoder.encode(ByteBuffer.wrap("ABBBCCCCBBBA".getBytes()), src);
+        src.flip();
+        int end = src.limit();
+        ByteBuffer dst = ByteBuffer.allocate(12);
+        src.limit(end - 1);
+        try {
+            decoder.decode(src, dst);
+            fail("Truncated message decoded");
+        } catch (BufferUnderflowException expected) {
+            assertEquals(0, src.position());
+        }
+        src.limit(end);
+        dst.clear();
+        assertEquals(12, decoder.decode(src, dst));
+        assertEquals(end, src.position());
+        assertEquals("ABBBCCCCBBBA", new String(dst.array()));
+    }
+    
+    // Metrics Tests
+    // -----------------------------------------------
+    @Test
+    public void metrics_t0() throws IOException {
+        // Model statistics: "ABBBCC" has lengths 2, 1, 2
+        Huffman h = new Huffman("ABBBCC");
+        assertArrayEquals(new int[] {0, 1, 2}, h.codeLengthCounts());
+        assertEquals(2, h.maxCodeLength());
+        assertEquals(1.459, h.entropy(), 0.001);
+        assertEquals(1.5, h.expectedBitsPerCharacter(), 0);
+        Path model = Files.createTempFile("huffman", ".model");
+        try {
+            h.save(model);
+            Huffman loaded = Huffman.load(model);
+            assertEquals(h.entropy(), loaded.entropy(), 0);
+            assertEquals(1.5, loaded.expectedBitsPerCharacter(), 0);
+        } finally {
+            Files.delete(model);
+        }
+    }
+    
+    @Test
+    public void metrics_t1() {
+        // Counters add up across paths, in bits without the padding; the
+        // original instance reports nothing
+        HuffmanStats stats = new HuffmanStats();
+        Huffman plain = new Huffman("ABBBCC");
+        Huffman h = plain.withMetrics(stats);
+        plain.compress("ABBBCC");
+        assertEquals(0, stats.getEncodedSymbols());
+        h.decompress(h.compress("ABBBCC"));
+        h.decompressParallel(h.compressParallel("ABBBCCAB", 4));
+        assertEquals(14, stats.getEncodedSymbols());
+        assertEquals(14, stats.getDecodedSymbols());
+        // B = 0, A = 10, C = 11: "ABBBCC" is 9 bits, "ABBB" 5 and "CCAB" 7
+        assertEquals(9 + 5 + 7, stats.getEncodedBits());
+        assertEquals(9 + 5 + 7, stats.getDecodedBits());
+        assertEquals(1.5, stats.getBitsPerSymbol(), 1e-9);
+        stats.reset();
+        assertEquals(0, stats.getDecodedBits());
+    }
+    
+    @Test
+    public void metrics_t2() {
+        // Per-model stats publish the model alongside the counters
+        Huffman plain = new Huffman("ABBBCC");
+        HuffmanStats stats = new HuffmanStats(plain);
+        Huffman h = plain.withMetrics(stats);
+        assertArrayEquals(new int[] {0, 1, 2}, stats.getCodeLengthCounts());
+        assertEquals(2, stats.getMaxCodeLength());
+        assertEquals(plain.entropy(), stats.getEntropy(), 0);
+        // many short messages: their padding mustn't count as excess
+        for (int i = 0; i < 1000; i++) {
+            h.compress("ABBBCC");
+        }
+        assertEquals(0, stats.getExcessBitsPerSymbol(), 1e-9);
+        stats.reset();
+        for (int i = 0; i < 1000; i++) {
+            h.compress("ACACAC");
+        }
+        assertEquals(0.5, stats.getExcessBitsPerSymbol(), 1e-9);
+        assertTrue(Double.isNaN(new HuffmanStats().getExpectedBitsPerSymbol()));
+    }
+    
+    // Escape Tests
+    // -----------------------------------------------
+    @Test
+    public void escape_t0() {
+        // "ABBBCC" + escape (weight 1): B = 0, C = 10, A = 110, escape = 111
+        Huffman h = new Huffman("ABBBCC", 32, true);
+        // 'D' = 111 then 68 in 21 bits, then 'A' = 110:
+        // 1110 0000 | 0000 0000 | 0100 0100 | 1100 0000
+        byte[] compressed = {2, -32, 0, 68, -64};
+        assertArrayEquals(compressed, h.compress("DA"));
+        assertEquals("DA", h.decompress(compressed));
+    }
+    
+    @Test
+    public void escape_t1() {
+        // Anything goes, through every path, and the header carries the escape
+        String corpus = "the quick brown fox jumps over the lazy dog";
+        Huffman h = new Huffman(corpus, 12, true);
+        String message = "THE QUICK \u00e9\u4e2d\uffff\u0000 fox";
+        assertEquals(message, h.decompress(h.compress(message)));
+        assertEquals(message, Huffman.decompressCanonical(h.compressCanonical(message)));
+        assertEquals(message, h.decompressParallel(h.compressParallel(message, 5)));
+        assertEquals(message, h.decompressInterleaved(h.compressInterleaved(message)));
+        HuffmanEncoder encoder = h.newEncoder();
+        byte[] dst = new byte[encoder.maxEncodedLength(message.length())];
+        int written = encoder.encode(message, dst, 0);
+        char[] chars = new char[message.length()];
+        h.newDecoder().decode(dst, 0, written, chars, 0);
+        assertEquals(message, new String(chars));
+    }
+    
+    @Test(expected=IllegalArgumentException.class)
+    public void escape_t2() {
+        // Without an escape, unknown characters are an error
+        new Huffman("ABBBCC").compress("ABD");
+    }
+    
+    // Code Point Tests
+    // -----------------------------------------------
+    @Test
+    public void codePoint_t0() {
+        // Supplementary characters are single symbols, not surrogate pairs
+        String corpus = "\uD83D\uDE00\uD83D\uDE00\uD83D\uDE00\u4E2D\u6587\uD840\uDC0Babc";
+        Huffman h = new Huffman(corpus.codePoints().toArray());
+        byte[] compressed = h.compressCodePoints(corpus);
+        assertEquals(9, compressed[0]);
+        assertEquals(corpus, h.decompressCodePoints(compressed));
+    }
+    
+    @Test
+    public void codePoint_t1() {
+        // A large, sparse alphabet round-trips through the hashed symbol map
+        int[] corpus = new int[20000];
+        for (int i = 0; i < corpus.length; i++) {
+            corpus[i] = (i % 2000) * 500 + (i % 3 == 0 ? 0 : 1);
+        }
+        Huffman h = new Huffman(corpus, 16, true);
+        assertArrayEquals(corpus, h.decompressSymbols(h.compress(corpus)));
+        // an unseen code point is escaped
+        int[] message = {0, 1, 0x10FFFF, 500};
+        assertArrayEquals(message, h.decompressSymbols(h.compress(message)));
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void codePoint_t2() {
+        // Symbols must be code points
+        new Huffman(new int[] {1, 2, Character.MAX_CODE_POINT + 1});
+    }
+    
+    @Test
+    public void escape_t3() throws IOException {
+        // A deep escape (well over 32 bits with its literal) survives every container
+        long[] histogram = new long[Character.MAX_VALUE + 1];
+        for (int i = 0; i < 25; i++) {
+            histogram[i] = 1L << i;
+        }
+        Huffman h = new Huffman(histogram, 32, true);
+        byte[] message = {(byte) 0xF0, 0, (byte) 0xF0};
+        String text = new String(message, "ISO-8859-1");
+        
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        h.compress(new ByteArrayInputStream(message), compressed);
+        ByteArrayOutputStream decompressed = new ByteArrayOutputStream();
+        h.decompress(new ByteArrayInputStream(compressed.toByteArray()), decompressed);
+        assertArrayEquals(message, decompressed.toByteArray());
+        
+        assertEquals(text, h.decompressFramed(h.compressFramed(text)));
+        
+        compressed.reset();
+        try (HuffmanOutputStream out = new HuffmanOutputStream(compressed, h)) {
+            out.write(message);
+        }
+        try (HuffmanInputStream in = new HuffmanInputStream(new ByteArrayInputStream(compressed.toByteArray()), h)) {
+            byte[] read = new byte[message.length];
+            assertEquals(message.length, in.read(read));
+            assertArrayEquals(message, read);
+        }
+        
+        Path original = Files.createTempFile("huffman", ".txt");
+        Path encoded = Files.createTempFile("huffman", ".huff");
+        Path restored = Files.createTempFile("huffman", ".out");
+        try {
+            Files.write(original, message);
+            h.compressFile(original, encoded);
+            h.decompressFile(encoded, restored);
+            assertArrayEquals(message, Files.readAllBytes(restored));
+        } finally {
+            Files.delete(original);
+            Files.delete(encoded);
+            Files.delete(restored);
+        }
+    }
+    
+    // Sampling Tests
+    // -----------------------------------------------
+    @Test
+    public void sample_t0() {
+        // Small corpora are counted in full, giving the same model
+        String corpus = "the quick brown fox jumps over the lazy dog";
+        HistogramSampler sampler = new HistogramSampler(0.01, 0.05, 42).add(corpus);
+        assertEquals(corpus.length(), sampler.sampledCount());
+        assertArrayEquals(new Huffman(corpus).compress(corpus), sampler.build().compress(corpus));
+    }
+    
+    @Test
+    public void sample_t1() throws IOException {
+        // Large corpora are sampled, within the loss bound
+        StringBuilder text = new StringBuilder();
+        Random random = new Random(7);
+        while (text.length() < 1 << 21) {
+            text.append((char) ('a' + Math.min(25, (int) -Math.log(random.nextDouble()) * 3)));
+        }
+        String corpus = text.toString();
+        HistogramSampler sampler = new HistogramSampler(0.05, 0.001, 7).add(corpus);
+        assertEquals(corpus.length(), sampler.seenCount());
+        assertTrue(sampler.sampledCount() < corpus.length() / 4);
+        assertTrue(sampler.estimatedLoss() <= 0.001);
+        int full = new Huffman(corpus).compress(corpus).length;
+        int sampled = sampler.build().compress(corpus).length;
+        assertTrue(sampled < full * 1.01);
+        
+        HistogramSampler bytes = new HistogramSampler(0.05, 0.001, 7)
+            .add(new ByteArrayInputStream(corpus.getBytes("ISO-8859-1")));
+        assertEquals(corpus.length(), bytes.seenCount());
+        assertTrue(bytes.sampledCount() < corpus.length() / 4);
+    }
+    
+    // Context Model Tests
+    // -----------------------------------------------
+    @Test
+    public void context_t0() {
+        // Round trips, including characters never seen in a given context
+        String corpus = "the quick brown fox jumps over the lazy dog. ";
+        for (int i = 0; i < 5; i++) {
+            corpus += corpus;
+        }
+        ContextHuffman h = new ContextHuffman(corpus);
+        assertTrue(h.codeCount() > 1);
+        for (String message : new String[] {"", "t", "the lazy fox", "zzzz qqq ...", corpus}) {
+            assertEquals(message, h.decompress(h.compress(message)));
+        }
+    }
+    
+    @Test
+    public void context_t1() {
+        // Strongly correlated text compresses much better than order-0
+        String corpus = "";
+        for (int i = 0; i < 200; i++) {
+            corpus += "abcdefgh";
+        }
+        ContextHuffman context = new ContextHuffman(corpus);
+        Huffman plain = new Huffman(corpus);
+        assertEquals(9, context.codeCount());
+        assertTrue(context.compress(corpus).length * 2 < plain.compress(corpus).length);
+    }
+    
+    @Test
+    public void context_t2() {
+        // Each context codes only the successors it saw, plus a fallback
+        String corpus = "";
+        for (int i = 0; i < 200; i++) {
+            corpus += "abcdefgh";
+        }
+        ContextHuffman h = new ContextHuffman(corpus);
+        assertEquals(8 + 8 * 2, h.symbolCount());
+        assertEquals("hgfedcba", h.decompress(h.compress("hgfedcba")));
+    }
+    
+    @Test
+    public void context_t3() {
+        // Characters missing from the corpus need the escape
+        String corpus = "the quick brown fox jumps over the lazy dog. ";
+        for (int i = 0; i < 5; i++) {
+            corpus += corpus;
+        }
+        ContextHuffman h = new ContextHuffman(corpus, true);
+        String message = "the #1 fox \u00e9t\u00e9 \u4E2D";
+        assertEquals(message, h.decompress(h.compress(message)));
+        assertEquals(corpus, h.decompress(h.compress(corpus)));
+        try {
+            new ContextHuffman(corpus).compress(message);
+            fail("unseen character compressed without an escape");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+    
+    // Word Model Tests
+    // -----------------------------------------------
+    @Test
+    public void word_t0() {
+        // Round trips, spelling out unseen words and characters
+        String corpus = "the cat sat on the mat, the dog sat on the log. ";
+        WordHuffman h = new WordHuffman(corpus);
+        assertEquals(4, h.dictionarySize());
+        for (String message : new String[] {"", "the", "the cat sat on the zebra!", "\u00e9t\u00e9 \u4E2D", corpus}) {
+            assertEquals(message, h.decompress(h.compress(message)));
+        }
+    }
+    
+    @Test
+    public void word_t1() {
+        // Repetitive prose compresses much better than with a char-level code
+        String[] words = {"the", "of", "and", "compression", "huffman", "code", "a", "table", "symbol", "length"};
+        StringBuilder text = new StringBuilder();
+        Random random = new Random(3);
+        while (text.length() < 1 << 16) {
+            text.append(words[Math.min(words.length - 1, (int) -Math.log(random.nextDouble()) * 2)]);
+            text.append(random.nextInt(8) == 0 ? ". " : " ");
+        }
+        String corpus = text.toString();
+        WordHuffman word = new WordHuffman(corpus);
+        Huffman plain = new Huffman(corpus);
+        assertTrue(word.compress(corpus).length * 2 < plain.compress(corpus).length);
+    }
+    
+    @Test
+    public void word_t2() {
+        // Truncated input is rejected instead of spelling out 0-bits forever
+        WordHuffman h = new WordHuffman("xxxab");
+        byte[] compressed = h.compress("qq qq qq");
+        for (int length = 1; length < compressed.length; length++) {
+            try {
+                h.decompress(Arrays.copyOf(compressed, length));
+                fail("message truncated to " + length + " bytes decompressed");
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+    }
+    
+    @Test
+    public void word_t3() {
+        // A big dictionary: every token is found, while its prefixes and
+        // extensions are spelled out
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            text.append("w").append(Integer.toString(i, 36)).append(' ');
+            text.append("w").append(Integer.toString(i, 36)).append(' ');
+        }
+        WordHuffman h = new WordHuffman(text.toString());
+        assertEquals(5000 + 1, h.dictionarySize());
+        String message = "w0 w3ho w3h w3hoo w w1 wa wb7 w";
+        assertEquals(message, h.decompress(h.compress(message)));
+        assertTrue(h.compress("w3ho w3ho w3ho").length < h.compress("wzzz wzzz wzzz").length);
+    }
+    
+    // Model File Tests
+    // -----------------------------------------------
+    @Test
+    public void model_t0() throws IOException {
+        // Loaded model compresses like the original; magic, version,
+        // entropy and expected bits, header, CRC
+        Huffman h = new Huffman("ABBBCC");
+        Path model = Files.createTempFile("huffman", ".model");
+        try {
+            h.save(model);
+            byte[] saved = Files.readAllBytes(model);
+            assertEquals(3 + 16 + 7 + 4, saved.length);
+            assertArrayEquals(new byte[] {'H', 'M', 2}, Arrays.copyOf(saved, 3));
+            assertEquals(h.entropy(), ByteBuffer.wrap(saved, 3, 8).getDouble(), 0);
+            assertEquals(1.5, ByteBuffer.wrap(saved, 11, 8).getDouble(), 0);
+            assertArrayEquals(new byte[] {3, 65, 2, 0, 1, 0, 2}, Arrays.copyOfRange(saved, 19, 26));
+            Huffman loaded = Huffman.load(model);
+            assertArrayEquals(h.compress("CABBAC"), loaded.compress("CABBAC"));
+            assertEquals("CABBAC", loaded.decompress(h.compress("CABBAC")));
+        } finally {
+            Files.delete(model);
+        }
+    }
+    
+    @Test
+    public void model_t1() throws IOException {
+        // Corrupted or foreign files are rejected
+        Path model = Files.createTempFile("huffman", ".model");
+        try {
+            new Huffman(skewedCorpus(20)).save(model);
+            byte[] saved = Files.readAllBytes(model);
+            saved[5] ^= 1;
+            Files.write(model, saved);
+            try {
+                Huffman.load(model);
+                fail("corrupted model loaded");
+            } catch (IOException expected) {
+            }
+            Files.write(model, "HM".getBytes("ISO-8859-1"));
+            try {
+                Huffman.load(model);
+                fail("truncated model loaded");
+            } catch (IOException expected) {
+            }
+        } finally {
+            Files.delete(model);
+        }
+    }
+    
+    // Registry Tests
+    // -----------------------------------------------
+    @Test
+    public void registry_t0() {
+        // Same counts (in any order) share one model
+        HuffmanRegistry registry = new HuffmanRegistry(4);
+        Huffman h = registry.forCorpus("ABBBCC");
+        assertSame(h, registry.forCorpus("CBCBAB"));
+        assertNotSame(h, registry.forCorpus("ABBBCCC"));
+        assertNotSame(h, registry.forCorpus("ABBBCC", 1 + 1));
+        assertEquals(1, registry.hits());
+        assertEquals(3, registry.misses());
+        assertArrayEquals(new Huffman("ABBBCC").compress("CAB"), h.compress("CAB"));
+    }
+    
+    @Test
+    public void registry_t1() {
+        // Least recently used model goes first
+        HuffmanRegistry registry = new HuffmanRegistry(2);
+        Huffman a = registry.forCorpus("AB");
+        Huffman b = registry.forCorpus("ABB");
+        assertSame(a, registry.forCorpus("AB"));
+        registry.forCorpus("ABBB");
+        assertEquals(2, registry.size());
+        assertSame(a, registry.forCorpus("BA"));
+        assertNotSame(b, registry.forCorpus("ABB"));
+    }
+    
+    // Interleaved Stream Tests
+    // -----------------------------------------------
+    @Test
+    public void interleaved_t0() {
+        // 2 streams of 3 characters: "ABB" and "BCC"
+        Huffman h = new Huffman("ABBBCC");
+        byte[] compressed = h.compressInterleaved("ABBBCC", 2);
+        // canonical codes B = 0, A = 10, C = 11: "ABB" = 1000 0000, "BCC" = 0111 1000
+        assertArrayEquals(new byte[] {6, 2, 1, -128, 120}, compressed);
+        assertEquals("ABBBCC", h.decompressInterleaved(compressed));
+    }
+    
+    @Test
+    public void interleaved_t1() {
+        // Every length around the stream count, including short and empty segments
+        String corpus = "the quick brown fox jumps over the lazy dog";
+        Huffman h = new Huffman(corpus);
+        for (int streams = 1; streams <= Huffman.MAX_INTERLEAVED_STREAMS; streams++) {
+            for (int n = 0; n <= corpus.length(); n++) {
+                String message = corpus.substring(0, n);
+                assertEquals(message, h.decompressInterleaved(h.compressInterleaved(message, streams)));
+            }
+        }
+        assertEquals(corpus, h.decompressInterleaved(h.compressInterleaved(corpus)));
+    }
+    
+    @Test
+    public void interleaved_t2() {
+        // Long codes (through linked table entries) and escapes in the middle
+        // of the four-at-a-time rounds, for stream counts on and off a multiple of 4
+        long[] histogram = new long[Character.MAX_VALUE + 1];
+        for (int i = 0; i < 25; i++) {
+            histogram['a' + i] = 1L << i;
+        }
+        Huffman h = new Huffman(histogram, 32, true);
+        StringBuilder message = new StringBuilder();
+        Random random = new Random(14);
+        for (int i = 0; i < 5000; i++) {
+            message.append(random.nextInt(50) == 0 ? (char) random.nextInt(0x3000) : (char) ('a' + Integer.numberOfLeadingZeros(random.nextInt() | 1) % 25));
+        }
+        String text = message.toString();
+        for (int streams : new int[] {3, 4, 5, 8, 11, Huffman.MAX_INTERLEAVED_STREAMS}) {
+            byte[] compressed = h.compressInterleaved(text, streams);
+            assertEquals(text, h.decompressInterleaved(compressed));
+            try {
+                h.decompressInterleaved(Arrays.copyOf(compressed, compressed.length - 8));
+                fail("Truncated message decoded");
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+    }
+    
+    // Random Access Tests
+    // -----------------------------------------------
+    @Test
+    public void indexed_t0() {
+        // Index of sync points after the header, then the plain bitstring
+        Huffman h = new Huffman("ABBBCC");
+        byte[] compressed = h.compressIndexed("ABBBCC", 2);
+        assertArrayEquals(new byte[] {6, 2, 0, 0, 0, 0, 0, 0, 0, 3, 0, 0, 0, 0, 0, 0, 0, 5, -121, -128},
+                compressed);
+        assertEquals("ABBBCC", h.decompressIndexed(compressed));
+        assertEquals("BBC", h.decompress(compressed, 2, 5));
+        assertEquals("", h.decompress(compressed, 6, 6));
+    }
+    
+    @Test
+    public void indexed_t1() {
+        // Every range matches substring, whatever the interval
+        String message = "the quick brown fox jumps over the lazy dog";
+        Huffman h = new Huffman(message, 12, true);
+        for (int interval : new int[] {1, 3, 7, 64}) {
+            byte[] compressed = h.compressIndexed(message + "!", interval);
+            for (int from = 0; from <= message.length(); from += 5) {
+                for (int to = from; to <= message.length() + 1; to += 4) {
+                    assertEquals((message + "!").substring(from, to), h.decompress(compressed, from, to));
+                }
+            }
+        }
+    }
+    
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void indexed_t2() {
+        // Ranges past the end are rejected
+        Huffman h = new Huffman("ABBBCC");
+        h.decompress(h.compressIndexed("ABBBCC"), 2, 7);
+    }
+    
+    // Streaming Tests
+    // -----------------------------------------------
+    @Test
+    public void stream_t0() throws IOException {
+        Huffman h = new Huffman("ABBBCC");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        h.compress(new ByteArrayInputStream("ABBBCC".getBytes("ISO-8859-1")), out);
+        // header 'H' v1, one block: 6 bytes, 2 byte bitstring (same as
+        // compress), its CRC32, then the end marker
+        byte[] compressed = out.toByteArray();
+        assertEquals(11, compressed.length);
+        assertArrayEquals(new byte[] {'H', 1, 6, 2, -121, -128}, Arrays.copyOf(compressed, 6));
+        assertEquals(0, compressed[10]);
+    }
+    
+    @Test
+    public void stream_t1() throws IOException {
+        // Several blocks' worth of input
+        String corpus = skewedCorpus(18);
+        byte[] message = (corpus + corpus + corpus).getBytes("ISO-8859-1");
+        Huffman h = new Huffman(corpus);
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        h.compress(new ByteArrayInputStream(message), compressed);
+        ByteArrayOutputStream decompressed = new ByteArrayOutputStream();
+        h.decompress(new ByteArrayInputStream(compressed.toByteArray()), decompressed);
+        assertArrayEquals(message, decompressed.toByteArray());
+    }
+    
+    @Test
+    public void stream_t2() throws IOException {
+        Huffman h = new Huffman("hello, channels");
+        byte[] message = "channels, hello".getBytes("ISO-8859-1");
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        h.compress(Channels.newChannel(new ByteArrayInputStream(message)), Channels.newChannel(compressed));
+        ByteArrayOutputStream decompressed = new ByteArrayOutputStream();
+        h.decompress(Channels.newChannel(new ByteArrayInputStream(compressed.toByteArray())),
+                Channels.newChannel(decompressed));
+        assertArrayEquals(message, decompressed.toByteArray());
+    }
+    
+    @Test
+    public void framed_t0() {
+        String corpus = skewedCorpus(18);
+        Huffman h = new Huffman(corpus);
+        // More than one block's worth
+        String message = corpus + corpus;
+        assertEquals(message, h.decompressFramed(h.compressFramed(message)));
+        assertEquals("", h.decompressFramed(h.compressFramed("")));
+    }
+    
+    @Test(expected=IllegalArgumentException.class)
+    public void framed_t1() {
+        Huffman h = new Huffman("ABBBCC");
+        byte[] compressed = h.compressFramed("ABBBCC");
+        compressed[4] ^= 1; // flip a bit of the bitstring
+        h.decompressFramed(compressed);
+    }
+    
+    
+    @Test
+    public void stream_t3() throws IOException {
+        // Filter streams: odd block size, mixed writes, a flush mid-way
+        String corpus = "the quick brown fox jumps over the lazy dog";
+        Huffman h = new Huffman(corpus);
+        byte[] text = (corpus + corpus + corpus).getBytes("ISO-8859-1");
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (HuffmanOutputStream out = new HuffmanOutputStream(compressed, h, 10)) {
+            out.write(text, 0, 3);
+            out.write(text[3]);
+            out.flush();
+            out.write(text, 4, 60);
+            out.write(text, 64, text.length - 64);
+        }
+        // (same container the stream methods read)
+        ByteArrayOutputStream decompressed = new ByteArrayOutputStream();
+        h.decompress(new ByteArrayInputStream(compressed.toByteArray()), decompressed);
+        assertArrayEquals(text, decompressed.toByteArray());
+        
+        try (HuffmanInputStream in = new HuffmanInputStream(new ByteArrayInputStream(compressed.toByteArray()), h)) {
+            assertEquals(text[0], in.read());
+            assertEquals(5, in.skip(5));
+            byte[] rest = new byte[text.length];
+            int n = 0, read;
+            while ((read = in.read(rest, n, Math.min(7, rest.length - n))) > 0) {
+                n += read;
+            }
+            assertEquals(text.length - 6, n);
+            assertArrayEquals(Arrays.copyOfRange(text, 6, text.length), Arrays.copyOf(rest, n));
+            assertEquals(-1, in.read());
+        }
+    }
+    
+    @Test
+    public void stream_t4() throws IOException {
+        // After finish, flush only pushes out the finished container, as a
+        // wrapping stream's flush or close will call it; writes still fail
+        Huffman h = new Huffman("ABBBCC");
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        HuffmanOutputStream out = new HuffmanOutputStream(compressed, h);
+        try (OutputStream buffered = new BufferedOutputStream(out)) {
+            buffered.write("ABBBCC".getBytes("ISO-8859-1"));
+            buffered.flush();
+            out.finish();
+            out.flush();
+            ByteArrayOutputStream decompressed = new ByteArrayOutputStream();
+            h.decompress(new ByteArrayInputStream(compressed.toByteArray()), decompressed);
+            assertEquals("ABBBCC", decompressed.toString("ISO-8859-1"));
+        }
+        try {
+            out.write('A');
+            fail("Wrote after finish");
+        } catch (IOException expected) {
+        }
+    }
+    
+    // Memory-Mapped File Tests
+    // -----------------------------------------------
+    @Test
+    public void file_t0() throws IOException {
+        String corpus = skewedCorpus(18);
+        byte[] message = (corpus + corpus).getBytes("ISO-8859-1");
+        Huffman h = new Huffman(corpus);
+        Path original = Files.createTempFile("huffman", ".txt");
+        Path compressed = Files.createTempFile("huffman", ".huff");
+        Path decompressed = Files.createTempFile("huffman", ".out");
+        try {
+            Files.write(original, message);
+            h.compressFile(original, compressed);
+            // Same container as the streams
+            ByteArrayOutputStream streamed = new ByteArrayOutputStream();
+            h.compress(new ByteArrayInputStream(message), streamed);
+            assertArrayEquals(streamed.toByteArray(), Files.readAllBytes(compressed));
+            h.decompressFile(compressed, decompressed);
+            assertArrayEquals(message, Files.readAllBytes(decompressed));
+        }
+        finally {
+            Files.delete(original);
+            Files.delete(compressed);
+            Files.delete(decompressed);
+        }
+    }
+    
+    @Test(expected=IOException.class)
+    public void file_t1() throws IOException {
+        Huffman h = new Huffman("ABBBCC");
+        Path compressed = Files.createTempFile("huffman", ".huff");
+        Path decompressed = Files.createTempFile("huffman", ".out");
+        try {
+            Files.write(compressed, new byte[] {'H', 1, 6, 2, -121, -128, 0, 0, 0, 0, 0});
+            h.decompressFile(compressed, decompressed); // bad checksum
+        }
+        finally {
+            Files.delete(compressed);
+            Files.delete(decompressed);
+        }
+    }
+    
+    // Block-Parallel Tests
+    // -----------------------------------------------
+    @Test
+    public void parallel_t0() {
+        Huffman h = new Huffman("ABBBCC");
+        // length 6, blocks of 4, index: 1 byte + 1 byte, then the blocks
+        // block 0: 10 0 0 0 = 1000 0000, block 1: 11 11 = 1111 0000
+        byte[] compressed = {6, 4, 1, 1, -128, -16};
+        assertArrayEquals(compressed, h.compressParallel("ABBBCC", 4));
+        assertEquals("ABBBCC", h.decompressParallel(compressed));
+    }
+    
+    @Test
+    public void parallel_t1() {
+        String corpus = skewedCorpus(16);
+        Huffman h = new Huffman(corpus);
+        String message = corpus + corpus + corpus;
+        assertEquals(message, h.decompressParallel(h.compressParallel(message, 1000)));
+        assertEquals(message, h.decompressParallel(h.compressParallel(message)));
+        assertEquals("", h.decompressParallel(h.compressParallel("")));
+    }
+    
+    @Test
+    public void parallel_t2() {
+        // A block count or block length the index can't hold is rejected
+        // before anything is sized from it
+        Huffman h = new Huffman("ABBBCC");
+        byte[][] malformed = {
+            {-1, -1, -1, -1, 7, 1, 0},
+            {16, 1, 0, 0, 0},
+            {2, 2, -1, -1, -1, -1, -1, -1, -1, -1, -1, 1, 0}
+        };
+        for (byte[] compressed : malformed) {
+            try {
+                h.decompressParallel(compressed);
+                fail("Malformed index decoded");
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+    }
+    
+    
+    // Adaptive Huffman Tests
+    // -----------------------------------------------
+    @Test
+    public void adaptive_t0() {
+        // byte 0: message length 2
+        // 'A' is new: empty NYT path, then 16 raw bits 0000 0000 0100 0001
+        // 'B' is new: NYT path 0, then 16 raw bits 0000 0000 0100 0010
+        byte[] compressed = {2, 0, 65, 0, 33, 0};
+        assertArrayEquals(compressed, AdaptiveHuffman.compress("AB"));
+        assertEquals("AB", AdaptiveHuffman.decompress(compressed));
+    }
+    
+    @Test
+    public void adaptive_t1() {
+        String message = skewedCorpus(20) + "the quick brown fox jumped over the lazy dog";
+        byte[] compressed = AdaptiveHuffman.compress(message);
+        assertEquals(message, AdaptiveHuffman.decompress(compressed));
+        // no corpus needed, and it still beats 2 bytes a character
+        assertTrue(compressed.length < message.length() / 2);
+        assertEquals("", AdaptiveHuffman.decompress(AdaptiveHuffman.compress("")));
+    }
+    
+    @Test
+    public void adaptive_t2() throws IOException {
+        String corpus = skewedCorpus(18);
+        byte[] message = (corpus + "\u00ff\u0000" + corpus).getBytes("ISO-8859-1");
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        AdaptiveHuffman.compress(new ByteArrayInputStream(message), compressed);
+        ByteArrayOutputStream decompressed = new ByteArrayOutputStream();
+        AdaptiveHuffman.decompress(new ByteArrayInputStream(compressed.toByteArray()), decompressed);
+        assertArrayEquals(message, decompressed.toByteArray());
+    }
+    
+    @Test
+    public void adaptive_t3() throws IOException {
+        // A new symbol after a deep trie takes more than 32 bits, alone in its block
+        byte[] corpus = skewedCorpus(30).getBytes("ISO-8859-1");
+        byte[] message = Arrays.copyOf(corpus, corpus.length + 1);
+        message[corpus.length] = '!';
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        AdaptiveHuffman.compress(new ChunkedInputStream(corpus, new byte[] {'!'}), compressed);
+        ByteArrayOutputStream decompressed = new ByteArrayOutputStream();
+        AdaptiveHuffman.decompress(new ByteArrayInputStream(compressed.toByteArray()), decompressed);
+        assertArrayEquals(message, decompressed.toByteArray());
+    }
+    
+    @Test
+    public void adaptive_t4() throws IOException {
+        // Each burst of a live feed is one block, flushed before the next read
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        int[] seen = new int[3];
+        InputStream feed = new ChunkedInputStream("abc".getBytes("ISO-8859-1"), "de".getBytes("ISO-8859-1")) {
+            @Override
+            public int read (byte[] b, int off, int len) {
+                seen[chunk] = compressed.size();
+                return super.read(b, off, len);
+            }
+        };
+        AdaptiveHuffman.compress(feed, compressed);
+        assertEquals(0, seen[0]);   // nothing before the first burst
+        assertTrue(seen[1] > 2);    // "abc" arrived before "de" was read
+        assertTrue(seen[2] > seen[1]);
+        
+        // input that is already there is gathered into one block
+        ByteArrayOutputStream batched = new ByteArrayOutputStream();
+        AdaptiveHuffman.compress(new ByteArrayInputStream("abcde".getBytes("ISO-8859-1")), batched);
+        assertTrue(batched.size() < compressed.size());
+        ByteArrayOutputStream decompressed = new ByteArrayOutputStream();
+        AdaptiveHuffman.decompress(new ByteArrayInputStream(compressed.toByteArray()), decompressed);
+        assertEquals("abcde", decompressed.toString("ISO-8859-1"));
+    }
+    
+    /**
+     * Hands out one chunk per read, and never reports more available, like a
+     * socket whose peer sends in bursts
+     */
+    static class ChunkedInputStream extends InputStream {
+        private final byte[][] chunks;
+        private int offset;
+        int chunk;
+        
+        ChunkedInputStream(byte[]... chunks) {
+            this.chunks = chunks;
+        }
+        
+        @Override
+        public int read() {
+            throw new UnsupportedOperationException();
+        }
+        
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (chunk == chunks.length) {
+                return -1;
+            }
+            int n = Math.min(len, chunks[chunk].length - offset);
+            System.arraycopy(chunks[chunk], offset, b, off, n);
+            offset += n;
+            if (offset == chunks[chunk].length) {
+                chunk++;
+                offset = 0;
+            }
+            return n;
+        }
+    }
+    
+    /**
+     * Builds a corpus whose n characters 'a', 'b', ... appear with Fibonacci
+     * frequencies, which produces the deepest possible Huffman Trie
+     */
+    static String skewedCorpus(int n) {
+        StringBuilder corpus = new StringBuilder();
+        int a = 1, b = 1;
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < a; j++) {
+                corpus.append((char) ('a' + i));
+            }
+            int next = a + b;
+            a = b;
+            b = next;
+        }
+        return corpus.toString();
+    }
+
     //Did lots of 'testing' with a main function and printf so I think its all good
     
 }
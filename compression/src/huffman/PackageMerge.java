@@ -0,0 +1,92 @@
+package huffman;
+
+import java.util.Arrays;
+
+/**
+ * Length-limited Huffman code lengths via the package-merge algorithm
+ * (Larmore and Hirschberg). Among all prefix codes whose codewords are at
+ * most maxLength bits, it finds one with the smallest total encoded size,
+ * which is never much worse than the unlimited Huffman code.
+ */
+final class PackageMerge {
+
+    private PackageMerge () {}
+
+    /**
+     * Computes optimal code lengths no longer than maxLength
+     * @param weights the frequency of each symbol, all > 0
+     * @param maxLength the longest codeword allowed
+     * @return the code length of each symbol, in the same order as weights
+     * @throws IllegalArgumentException if 2^maxLength codewords are too few
+     *         for the number of symbols
+     */
+    static int[] codeLengths (long[] weights, int maxLength) {
+        int n = weights.length;
+        if (maxLength < 1 || maxLength < 31 && n > 1 << maxLength) {
+            throw new IllegalArgumentException(n + " symbols cannot have codes of at most " + maxLength + " bits");
+        }
+        int[] lengths = new int[n];
+        if (n == 1) {
+            lengths[0] = 1;
+            return lengths;
+        }
+
+        //sort the symbols by weight, remembering where each came from
+        long[] sortedWeights = weights.clone();
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(weights[a], weights[b]));
+        for (int i = 0; i < n; i++) {
+            sortedWeights[i] = weights[order[i]];
+        }
+
+        //level maxLength - 1 (deepest) is just the leaves; each shallower level
+        //merges the leaves with the packages made by pairing up the level below
+        long[][] levelWeights = new long[maxLength][];
+        boolean[][] levelIsLeaf = new boolean[maxLength][];
+        levelWeights[maxLength - 1] = sortedWeights;
+        levelIsLeaf[maxLength - 1] = new boolean[n];
+        Arrays.fill(levelIsLeaf[maxLength - 1], true);
+        for (int level = maxLength - 2; level >= 0; level--) {
+            long[] below = levelWeights[level + 1];
+            int packages = below.length / 2;
+            long[] merged = new long[n + packages];
+            boolean[] isLeaf = new boolean[n + packages];
+            int leaf = 0, pack = 0;
+            for (int i = 0; i < merged.length; i++) {
+                long packWeight = pack < packages ? below[2 * pack] + below[2 * pack + 1] : Long.MAX_VALUE;
+                if (leaf < n && sortedWeights[leaf] <= packWeight) {
+                    merged[i] = sortedWeights[leaf++];
+                    isLeaf[i] = true;
+                }
+                else {
+                    merged[i] = packWeight;
+                    pack++;
+                }
+            }
+            levelWeights[level] = merged;
+            levelIsLeaf[level] = isLeaf;
+        }
+
+        //take the cheapest 2n - 2 items at the top level, then follow the
+        //packages among them down: every level a leaf is picked at adds one
+        //bit to its code (and the leaves picked are always the lightest ones)
+        int take = 2 * n - 2;
+        for (int level = 0; level < maxLength && take > 0; level++) {
+            int leaves = 0;
+            for (int i = 0; i < take; i++) {
+                if (levelIsLeaf[level][i]) {
+                    leaves++;
+                }
+            }
+            for (int i = 0; i < leaves; i++) {
+                lengths[order[i]]++;
+            }
+            take = 2 * (take - leaves);
+        }
+        return lengths;
+    }
+
+}
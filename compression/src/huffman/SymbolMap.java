@@ -0,0 +1,104 @@
+package huffman;
+
+import java.util.Arrays;
+
+/**
+ * Maps the symbols of an alphabet to their dense indices. Small, dense
+ * alphabets (chars, few of them unused) are looked up directly in an array
+ * indexed by symbol; larger or sparser ones, such as full Unicode code
+ * points, word ids, or a few CJK characters, in an open-addressing hash
+ * table sized by the number of symbols, so a handful of symbols near
+ * Character.MAX_CODE_POINT costs a handful of slots.
+ */
+final class SymbolMap {
+
+    /**
+     * Largest symbol value still looked up in a direct array
+     */
+    static final int DIRECT_LIMIT = Character.MAX_VALUE;
+
+    /**
+     * Most array slots per symbol a direct array may spend (beyond the first
+     * 256, which any alphabet may have)
+     */
+    static final int DIRECT_SLOTS_PER_SYMBOL = 16;
+
+    // exactly one of the two layouts is used: direct[symbol] holds the
+    // index (-1 if absent), or keys/values is a linear-probing table with
+    // -1 marking empty slots
+    private final int[] direct;
+    private final int[] keys;
+    private final int[] values;
+    private final int shift;
+
+    /**
+     * @param symbols the symbols of the alphabet, each nonnegative and
+     *        appearing once; symbols[i] maps to i
+     * @param skip an index to leave out of the map, or -1
+     */
+    SymbolMap (int[] symbols, int skip) {
+        int maxSymbol = -1;
+        for (int i = 0; i < symbols.length; i++) {
+            if (i != skip) {
+                maxSymbol = Math.max(maxSymbol, symbols[i]);
+            }
+        }
+        if (maxSymbol <= DIRECT_LIMIT && maxSymbol < Math.max(256, DIRECT_SLOTS_PER_SYMBOL * symbols.length)) {
+            this.direct = new int[maxSymbol + 1];
+            Arrays.fill(direct, -1);
+            for (int i = 0; i < symbols.length; i++) {
+                if (i != skip) {
+                    direct[symbols[i]] = i;
+                }
+            }
+            this.keys = null;
+            this.values = null;
+            this.shift = 0;
+        }
+        else {
+            //at most half full, so probe runs stay short
+            int bits = Math.max(4, 33 - Integer.numberOfLeadingZeros(symbols.length));
+            this.direct = null;
+            this.keys = new int[1 << bits];
+            this.values = new int[1 << bits];
+            this.shift = 32 - bits;
+            Arrays.fill(keys, -1);
+            for (int i = 0; i < symbols.length; i++) {
+                if (i != skip) {
+                    int slot = slot(symbols[i]);
+                    while (keys[slot] != -1) {
+                        slot = (slot + 1) & (keys.length - 1);
+                    }
+                    keys[slot] = symbols[i];
+                    values[slot] = i;
+                }
+            }
+        }
+    }
+
+    private int slot (int symbol) {
+        return (symbol * 0x9E3779B9) >>> shift;
+    }
+
+    /**
+     * @param symbol any int
+     * @return the dense index of the symbol, -1 if it is not in the map
+     */
+    int get (int symbol) {
+        if (direct != null) {
+            return symbol >= 0 && symbol < direct.length ? direct[symbol] : -1;
+        }
+        if (symbol < 0) {
+            return -1;
+        }
+        for (int slot = slot(symbol); ; slot = (slot + 1) & (keys.length - 1)) {
+            if (keys[slot] == symbol) {
+                return values[slot];
+            }
+            if (keys[slot] == -1) {
+                return -1;
+            }
+        }
+    }
+
+}
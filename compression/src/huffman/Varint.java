@@ -0,0 +1,134 @@
+package huffman;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * LEB128-style variable length integers: 7 bits per byte, least significant
+ * group first, with the high bit of each byte set when more bytes follow.
+ * Values under 128 cost a single byte.
+ */
+final class Varint {
+    
+    private Varint () {}
+    
+    /**
+     * Writes the given non-negative value to the stream
+     * @param out stream to append to
+     * @param value value to write, must be >= 0
+     */
+    static void write (ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+    
+    /**
+     * Writes the given non-negative value to the stream
+     * @param out stream to append to
+     * @param value value to write, must be >= 0
+     * @throws IOException if the stream does
+     */
+    static void write (OutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+    
+    /**
+     * Writes the given non-negative value at the buffer's position
+     * @param out buffer to write to; its position is advanced
+     * @param value value to write, must be >= 0
+     * @throws java.nio.BufferOverflowException if the buffer is full
+     */
+    static void write (ByteBuffer out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+    
+    /**
+     * Reads a value written by {@link #write}, advancing the buffer's position
+     * @param in buffer positioned at the first byte of the varint
+     * @return the value read
+     * @throws IllegalArgumentException if the varint is truncated or too long
+     */
+    static long read (ByteBuffer in) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            if (!in.hasRemaining()) {
+                throw new IllegalArgumentException("Truncated varint");
+            }
+            byte b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint");
+    }
+    
+    /**
+     * Reads a value written by {@link #write} from a stream
+     * @param in stream positioned at the first byte of the varint
+     * @return the value read
+     * @throws EOFException if the stream ends inside the varint
+     * @throws IOException if the stream does, or the varint is too long
+     */
+    static long read (InputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.read();
+            if (b == -1) {
+                throw new EOFException("Truncated varint");
+            }
+            value |= (long) (b & 0x7F) << shift;
+            if (b < 0x80) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+    
+    /**
+     * Reads a varint that must fit in a non-negative int
+     * @param in buffer positioned at the first byte of the varint
+     * @return the value read
+     */
+    static int readInt (ByteBuffer in) {
+        long value = read(in);
+        if (value < 0 || value > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Varint out of range: " + value);
+        }
+        return (int) value;
+    }
+    
+    /**
+     * Reads the symbol count at the front of a message, checking it against
+     * the bytes that follow: every symbol takes at least one bit, so a count
+     * above 8 per remaining byte means a truncated or corrupt message.
+     * Decoders size their output from the count, so this comes first.
+     * @param in buffer positioned at the first byte of the varint, limited
+     *        to the end of the message
+     * @return the count read
+     * @throws IllegalArgumentException if the count is out of range
+     */
+    static int readCount (ByteBuffer in) {
+        int count = readInt(in);
+        if (count > 8L * in.remaining()) {
+            throw new IllegalArgumentException("Truncated message: " + count + " symbols in " + in.remaining() + " bytes");
+        }
+        return count;
+    }
+    
+}
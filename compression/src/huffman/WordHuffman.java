@@ -0,0 +1,256 @@
+package huffman;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Word level Huffman coding for natural language: text is split into tokens,
+ * alternately runs of letters and digits (words) and runs of everything else
+ * (separators, such as ", "), and each token the training corpus repeats is
+ * one symbol, so a common word costs a few bits instead of a few bits per
+ * character. Tokens outside the dictionary are spelled out after a literal
+ * codeword with a character level code, ended by a terminator symbol, so
+ * any text can be encoded (characters missing from the corpus too, through
+ * that code's escape). Instances never change once built and can be shared
+ * between threads.
+ */
+public final class WordHuffman {
+
+    /**
+     * Tokens seen fewer times than this in the training corpus are left out
+     * of the dictionary and spelled out instead
+     */
+    static final int MIN_TOKEN_COUNT = 2;
+
+    /**
+     * Ends a spelled out token in the character code: a noncharacter that
+     * no char can be
+     */
+    static final int END_OF_LITERAL = Character.MAX_CODE_POINT;
+
+    // the dictionary, as one array of characters: token i is
+    // chars[offsets[i]..offsets[i + 1]); token id `literal` (= the number of
+    // tokens) announces a spelled out token
+    private final char[] chars;
+    private final int[] offsets;
+    private final int literal;
+    // token ids by hash of their characters, in a linear-probing table with
+    // -1 marking empty slots, so a lookup needs no substring
+    private final int[] ids;
+    private final int shift;
+    private final CodeTable tokenCode;
+    private final DecodeTable tokenDecode;
+    private final CodeTable charCode;
+    private final DecodeTable charDecode;
+
+    /**
+     * Builds the token dictionary, the token code and the fallback character
+     * code from the given text corpus
+     * @param corpus a text corpus with distributions comparable to the
+     *        messages compressed later (see {@link Huffman#Huffman(String)})
+     * @throws IllegalArgumentException if the corpus is empty
+     */
+    WordHuffman (String corpus) {
+        if (corpus.isEmpty()) {
+            throw new IllegalArgumentException("Empty corpus");
+        }
+
+        Map<String, long[]> counts = new HashMap<>();
+        for (int from = 0, to; from < corpus.length(); from = to) {
+            to = tokenEnd(corpus, from);
+            counts.computeIfAbsent(corpus.substring(from, to), token -> new long[1])[0]++;
+        }
+
+        //the dictionary in sorted order, so the same corpus always gets the
+        //same ids; the literal's weight is the number of spelled out tokens
+        String[] tokens = counts.entrySet().stream()
+                .filter(e -> e.getValue()[0] >= MIN_TOKEN_COUNT)
+                .map(Map.Entry::getKey)
+                .sorted()
+                .toArray(String[]::new);
+        long[] weights = new long[tokens.length + 1];
+        //at most half full, so probe runs stay short
+        int bits = Math.max(4, 33 - Integer.numberOfLeadingZeros(tokens.length));
+        this.ids = new int[1 << bits];
+        this.shift = 32 - bits;
+        Arrays.fill(ids, -1);
+        this.offsets = new int[tokens.length + 1];
+        StringBuilder dictionary = new StringBuilder();
+        for (int i = 0; i < tokens.length; i++) {
+            int slot = slot(tokens[i], 0, tokens[i].length());
+            while (ids[slot] != -1) {
+                slot = (slot + 1) & (ids.length - 1);
+            }
+            ids[slot] = i;
+            weights[i] = counts.get(tokens[i])[0];
+            dictionary.append(tokens[i]);
+            offsets[i + 1] = dictionary.length();
+        }
+        this.chars = dictionary.toString().toCharArray();
+        this.literal = tokens.length;
+
+        //the character code only ever spells out rare tokens, so it is
+        //trained on those (on the whole corpus if there are none)
+        long[] histogram = new long[Character.MAX_VALUE + 1];
+        long spelled = 0;
+        for (Map.Entry<String, long[]> e : counts.entrySet()) {
+            if (e.getValue()[0] < MIN_TOKEN_COUNT) {
+                spelled += e.getValue()[0];
+                for (int i = 0; i < e.getKey().length(); i++) {
+                    histogram[e.getKey().charAt(i)] += e.getValue()[0];
+                }
+            }
+        }
+        if (spelled == 0) {
+            histogram = Huffman.countFrequencies(corpus);
+        }
+        weights[literal] = spelled + 1;
+
+        int[] tokenSymbols = new int[weights.length];
+        for (int i = 0; i < tokenSymbols.length; i++) {
+            tokenSymbols[i] = i;
+        }
+        this.tokenCode = new CodeTable(tokenSymbols, PackageMerge.codeLengths(weights, CodeTable.MAX_CODE_LENGTH));
+        this.tokenDecode = new DecodeTable(tokenCode);
+
+        //every character of the corpus, the terminator, and the escape
+        int n = 2;
+        for (long count : histogram) {
+            n += count != 0 ? 1 : 0;
+        }
+        int[] charSymbols = new int[n];
+        long[] charWeights = new long[n];
+        for (int c = 0, i = 0; c < histogram.length; c++) {
+            if (histogram[c] != 0) {
+                charSymbols[i] = c;
+                charWeights[i++] = histogram[c];
+            }
+        }
+        charSymbols[n - 2] = END_OF_LITERAL;
+        charWeights[n - 2] = spelled + 1;
+        charSymbols[n - 1] = CodeTable.ESCAPE;
+        charWeights[n - 1] = 1;
+        this.charCode = new CodeTable(charSymbols, PackageMerge.codeLengths(charWeights, CodeTable.MAX_CODE_LENGTH));
+        this.charDecode = new DecodeTable(charCode);
+    }
+
+    /**
+     * @param text text to tokenize
+     * @param from index of the first character of a token
+     * @return index just past the end of that token
+     */
+    static int tokenEnd (CharSequence text, int from) {
+        boolean word = Character.isLetterOrDigit(text.charAt(from));
+        int to = from + 1;
+        while (to < text.length() && Character.isLetterOrDigit(text.charAt(to)) == word) {
+            to++;
+        }
+        return to;
+    }
+
+    private int slot (CharSequence text, int from, int to) {
+        int hash = 0;
+        for (int i = from; i < to; i++) {
+            hash = 31 * hash + text.charAt(i);
+        }
+        return (hash * 0x9E3779B9) >>> shift;
+    }
+
+    /**
+     * @param text text holding a token
+     * @param from index of the token's first character
+     * @param to index just past its end
+     * @return the token's id, {@code literal} if it is not in the dictionary
+     */
+    private int id (CharSequence text, int from, int to) {
+        for (int slot = slot(text, from, to); ; slot = (slot + 1) & (ids.length - 1)) {
+            int id = ids[slot];
+            if (id == -1) {
+                return literal;
+            }
+            if (offsets[id + 1] - offsets[id] == to - from && matches(id, text, from)) {
+                return id;
+            }
+        }
+    }
+
+    private boolean matches (int id, CharSequence text, int from) {
+        for (int i = offsets[id]; i < offsets[id + 1]; i++, from++) {
+            if (chars[i] != text.charAt(from)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return number of tokens in the dictionary
+     */
+    int dictionarySize () {
+        return literal;
+    }
+
+    /**
+     * Compresses the given String message, coding each dictionary token as
+     * one symbol and spelling out the rest
+     * @param message String representing the corpus to compress.
+     * @return {@code byte[]} holding (1) the number of tokens in the message
+     *         as a varint, (2) the bitstring, 0-padded to a whole byte
+     */
+    public byte[] compress (String message) {
+        BitWriter bits = new BitWriter(message.length() / 4 + 8);
+        int count = 0;
+        for (int from = 0, to; from < message.length(); from = to, count++) {
+            to = tokenEnd(message, from);
+            int id = id(message, from, to);
+            tokenCode.encode(id, bits);
+            if (id == literal) {
+                for (int i = from; i < to; i++) {
+                    charCode.encode(message.charAt(i), bits);
+                }
+                charCode.encode(END_OF_LITERAL, bits);
+            }
+        }
+        bits.flush();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(bits.buffer().position() + 5);
+        Varint.write(out, count);
+        out.write(bits.buffer().array(), 0, bits.buffer().position());
+        return out.toByteArray();
+    }
+
+    /**
+     * Decompresses a message written by {@link #compress(String)} with a
+     * model built from the same corpus
+     * @param compressedMsg {@code byte[]} holding the compressed message
+     * @return Decompressed String representation of the compressed message.
+     * @throws IllegalArgumentException if the message is truncated
+     */
+    public String decompress (byte[] compressedMsg) {
+        ByteBuffer header = ByteBuffer.wrap(compressedMsg);
+        int count = Varint.readCount(header);
+
+        //a spelled out token can't run past the end: past it the reader
+        //hands out 0-bits forever
+        long available = (long) (compressedMsg.length - header.position()) * 8;
+        BitReader bits = new BitReader(header, header.position(), compressedMsg.length);
+        StringBuilder uncompressedMsg = new StringBuilder(count);
+        for (int i = 0; i < count; i++) {
+            int id = tokenDecode.decodeSymbol(bits);
+            if (id != literal) {
+                uncompressedMsg.append(chars, offsets[id], offsets[id + 1] - offsets[id]);
+                continue;
+            }
+            for (int c; (c = charDecode.decodeSymbol(bits)) != END_OF_LITERAL; ) {
+                if (bits.bitPosition() > available) {
+                    throw new IllegalArgumentException("Truncated message");
+                }
+                uncompressedMsg.appendCodePoint(c);
+            }
+        }
+        return uncompressedMsg.toString();
+    }
+
+}